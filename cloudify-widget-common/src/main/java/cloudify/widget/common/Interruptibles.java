@@ -0,0 +1,99 @@
+package cloudify.widget.common;
+
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.ssh.SshClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Makes blocking calls that ignore interrupts (ssh sessions, external processes) cancellable.
+ * <p/>
+ * The blocking call runs on the calling thread, with an abort action registered for it (e.g. closing its socket).
+ * Whoever wants to stop the thread calls {@link #interrupt(Thread)} instead of {@link Thread#interrupt()}, which
+ * also runs the abort action, releasing the blocked call. The caller then fails fast with its interrupt flag set.
+ * No extra thread is used.
+ */
+public class Interruptibles {
+
+    private static Logger logger = LoggerFactory.getLogger(Interruptibles.class);
+
+    // the abort actions of the threads which are currently in a blocking call
+    private static final ConcurrentMap<Thread, Runnable> aborts = new ConcurrentHashMap<Thread, Runnable>();
+
+    private Interruptibles() {
+    }
+
+    public static <T> T call(Callable<T> blockingCall, Runnable abort) {
+        Thread thread = Thread.currentThread();
+        aborts.put(thread, abort);
+        // an interrupt that arrived before the abort action was registered
+        if (thread.isInterrupted()) {
+            aborts.remove(thread, abort);
+            throw new RuntimeException("interrupted before a blocking call");
+        }
+        T result;
+        try {
+            result = blockingCall.call();
+        } catch (RuntimeException e) {
+            aborts.remove(thread, abort);
+            throw interruptedOr(thread, e);
+        } catch (Exception e) {
+            aborts.remove(thread, abort);
+            throw interruptedOr(thread, new RuntimeException(e));
+        } catch (Error e) {
+            aborts.remove(thread, abort);
+            throw e;
+        }
+        if (!aborts.remove(thread, abort)) {
+            // the call returned because it was aborted
+            throw new RuntimeException("interrupted while waiting for a blocking call");
+        }
+        return result;
+    }
+
+    /**
+     * Interrupts the thread, and aborts the blocking call it is in, if any.
+     */
+    public static void interrupt(Thread thread) {
+        thread.interrupt();
+        Runnable abort = aborts.remove(thread);
+        if (abort != null) {
+            logger.info("aborting the blocking call of interrupted thread [{}]", thread.getName());
+            try {
+                abort.run();
+            } catch (RuntimeException abortException) {
+                logger.warn("failed to abort blocking call", abortException);
+            }
+        }
+    }
+
+    private static RuntimeException interruptedOr(Thread thread, RuntimeException e) {
+        if (thread.isInterrupted()) {
+            // the failure was caused by the abort action
+            return new RuntimeException("interrupted while waiting for a blocking call", e);
+        }
+        return e;
+    }
+
+    /**
+     * Runs the command on a connected ssh client, disconnecting it if the calling thread is interrupted through
+     * {@link #interrupt(Thread)}. An ssh exec blocks on socket reads and does not respond to interrupts by itself.
+     */
+    public static ExecResponse exec(final SshClient sshClient, final String command) {
+        return call(new Callable<ExecResponse>() {
+            @Override
+            public ExecResponse call() {
+                return sshClient.exec(command);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                sshClient.disconnect();
+            }
+        });
+    }
+}
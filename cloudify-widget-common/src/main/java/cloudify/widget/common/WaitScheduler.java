@@ -0,0 +1,129 @@
+package cloudify.widget.common;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An asynchronous alternative to {@link WaitTimeout}.
+ * <p/>
+ * Conditions are checked on a shared scheduler instead of a sleeping thread, so any number of concurrent waits
+ * cost only the scheduler's threads. The period between checks grows exponentially, up to {@code maxPeriod},
+ * with some random jitter so that waits that started together do not poll together. The timeout is measured
+ * by the wall clock, including the time it takes to check the condition.
+ * <p/>
+ * Conditions are applied on the scheduler threads and should return quickly.
+ */
+public class WaitScheduler {
+
+    private static final Random random = new Random();
+
+    private ScheduledExecutorService scheduler;
+
+    public long timeout = 3 * 60000; // default to 3 minutes
+    public long initialPeriod = 1000;
+    public long maxPeriod = 30000;
+    public double multiplier = 2;
+    public double jitter = 0.2; // fraction of the period to randomly add or subtract
+
+
+    /**
+     * Waits for the condition using the default timeout.
+     *
+     * @see #waitFor(WaitTimeout.Condition, long)
+     */
+    public ListenableFuture<Void> waitFor(WaitTimeout.Condition condition) {
+        return waitFor(condition, timeout);
+    }
+
+    /**
+     * Checks the condition right away, and then periodically until it applies or until the timeout expires.
+     *
+     * @return A future which completes once the condition applies. It fails with a {@link TimeoutException} if the
+     * timeout expires first, or with the exception thrown by the condition. Cancelling it stops the checks.
+     */
+    public ListenableFuture<Void> waitFor(WaitTimeout.Condition condition, long timeout) {
+        Check check = new Check(condition, System.currentTimeMillis() + timeout);
+        scheduler.execute(check);
+        return check.result;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private long nextPeriod(long period) {
+        long next = Math.min(maxPeriod, (long) (period * multiplier));
+        long delta = (long) (next * jitter * (2 * random.nextDouble() - 1));
+        return Math.max(1, next + delta);
+    }
+
+    private class Check implements Runnable {
+
+        private final WaitTimeout.Condition condition;
+
+        private final long deadline;
+
+        private final SettableFuture<Void> result = SettableFuture.create();
+
+        private long period = initialPeriod;
+
+        Check(WaitTimeout.Condition condition, long deadline) {
+            this.condition = condition;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return; // cancelled
+            }
+            try {
+                if (condition.apply()) {
+                    result.set(null);
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    result.setException(new TimeoutException("condition timed out " + condition));
+                    return;
+                }
+                // check once more right at the deadline, rather than overshooting it
+                long delay = Math.min(period, remaining);
+                period = nextPeriod(period);
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (Throwable t) {
+                result.setException(t);
+            }
+        }
+    }
+
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setInitialPeriod(long initialPeriod) {
+        this.initialPeriod = initialPeriod;
+    }
+
+    public void setMaxPeriod(long maxPeriod) {
+        this.maxPeriod = maxPeriod;
+    }
+
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+}
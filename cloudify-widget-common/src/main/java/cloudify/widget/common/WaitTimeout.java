@@ -17,7 +17,11 @@ public class WaitTimeout {
         try{
             Thread.sleep(period);
             counter += period;
-        }catch(Exception e){}
+        }catch(InterruptedException e){
+            // the waiting task was cancelled, stop waiting
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("wait interrupted " + condition, e);
+        }
     }
 
     public boolean isTimeout(){
@@ -25,8 +29,10 @@ public class WaitTimeout {
     }
 
     public void waitFor(){
+        long start = System.currentTimeMillis();
         while ( !condition.apply() && !isTimeout() ){
             sleep();
+            counter = System.currentTimeMillis() - start; // count the time it took to apply the condition too
         }
 
         if ( isTimeout() ){
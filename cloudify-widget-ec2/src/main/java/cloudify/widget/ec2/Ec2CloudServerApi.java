@@ -2,6 +2,7 @@ package cloudify.widget.ec2;
 
 import cloudify.widget.api.clouds.*;
 import cloudify.widget.common.CloudExecResponseImpl;
+import cloudify.widget.common.Interruptibles;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.net.HostAndPort;
@@ -230,7 +231,7 @@ public class Ec2CloudServerApi implements CloudServerApi {
         try{
             sshConnection.connect();
             logger.info("ssh connected, executing");
-            execResponse = sshConnection.exec(script);
+            execResponse = Interruptibles.exec(sshConnection, script);
             logger.info("finished execution");
         }
         finally{
@@ -3,6 +3,7 @@ package cloudify.widget.hpcloudcompute;
 
 import cloudify.widget.api.clouds.*;
 import cloudify.widget.common.CloudExecResponseImpl;
+import cloudify.widget.common.Interruptibles;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
@@ -388,6 +389,10 @@ public class HpCloudComputeCloudServerApi implements CloudServerApi {
                     sshConnection.connect();
                     connectionSucceeded = true;
                 }
+                catch( InterruptedException e ){
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException( "SSH connect interrupted", e );
+                }
                 catch( Exception e ){
                     attemptsCount++;
                     logger.info( "failed to ssh connect, going to sleep..." );
@@ -397,7 +402,7 @@ public class HpCloudComputeCloudServerApi implements CloudServerApi {
                 throw new RuntimeException( "SSH connect failed" );
             }
             logger.info("ssh connected, executing");
-            execResponse = sshConnection.exec(script);
+            execResponse = Interruptibles.exec(sshConnection, script);
             logger.info("finished execution");
         }
         finally{
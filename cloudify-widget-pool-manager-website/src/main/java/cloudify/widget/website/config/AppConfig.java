@@ -11,6 +11,7 @@ import org.springframework.context.annotation.Configuration;
     private String jdbcDriverClassName = "com.mysql.jdbc.Driver";
     private String jdbcUrl = "jdbc:mysql://localhost:3306/manager-website";
     private String adminUuid = "7859674589673489567";  // dummy value change this in spring on production.
+    private int jdbcSchemaBaselineVersion = 0; // last schema script applied by hand, before migrations were recorded.
 
     public String getJdbcUsername() {
         return jdbcUsername;
@@ -44,6 +45,14 @@ import org.springframework.context.annotation.Configuration;
         this.jdbcUrl = jdbcUrl;
     }
 
+    public int getJdbcSchemaBaselineVersion() {
+        return jdbcSchemaBaselineVersion;
+    }
+
+    public void setJdbcSchemaBaselineVersion(int jdbcSchemaBaselineVersion) {
+        this.jdbcSchemaBaselineVersion = jdbcSchemaBaselineVersion;
+    }
+
     public String getAdminUuid() {
         return adminUuid;
     }
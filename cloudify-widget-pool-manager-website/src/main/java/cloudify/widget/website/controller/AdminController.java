@@ -1,5 +1,7 @@
 package cloudify.widget.website.controller;
 
+import cloudify.widget.pool.manager.JsonCodec;
+import cloudify.widget.pool.manager.NodeModelHandler;
 import cloudify.widget.pool.manager.PoolManagerApi;
 import cloudify.widget.pool.manager.dto.*;
 import cloudify.widget.website.dao.IAccountDao;
@@ -7,6 +9,7 @@ import cloudify.widget.website.dao.IPoolDao;
 import cloudify.widget.website.dao.IResourceDao;
 import cloudify.widget.website.models.AccountModel;
 import cloudify.widget.website.models.PoolConfigurationModel;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,6 +19,8 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.*;
 
 
@@ -37,6 +42,8 @@ public class AdminController {
     @Autowired
     private PoolManagerApi poolManagerApi;
 
+    private JsonCodec jsonCodec = JsonCodec.getInstance();
+
     public void setPoolManagerApi(PoolManagerApi poolManagerApi) {
         this.poolManagerApi = poolManagerApi;
     }
@@ -164,11 +171,26 @@ public class AdminController {
         return resultMap;
     }
 
+    @RequestMapping(value = "/admin/pools/{poolId}/forecast", method = RequestMethod.GET)
+    @ResponseBody
+    public DemandForecast getPoolForecast(@PathVariable("poolId") Long poolConfigurationId) {
+        PoolSettings poolSettings = poolDao.readPoolById(poolConfigurationId).getPoolSettings();
+        return poolManagerApi.getDemandForecast(poolSettings);
+    }
+
+    @RequestMapping(value = "/admin/metrics", method = RequestMethod.GET)
+    @ResponseBody
+    public List<TaskMetricsSnapshot> getTaskMetrics() {
+        return poolManagerApi.getTaskMetrics();
+    }
+
     @RequestMapping(value = "/admin/pools/{poolId}/errors", method = RequestMethod.GET)
     @ResponseBody
-    public List<ErrorModel> getPoolErrors(@PathVariable("poolId") Long poolConfigurationId) {
+    public List<ErrorModel> getPoolErrors(@PathVariable("poolId") Long poolConfigurationId,
+                                          @RequestParam(value = "after", required = false, defaultValue = "0") long afterId,
+                                          @RequestParam(value = "limit", required = false, defaultValue = "100") int limit) {
         PoolSettings poolSettings = poolDao.readPoolById(poolConfigurationId).getPoolSettings();
-        return poolManagerApi.listTaskErrors(poolSettings);
+        return poolManagerApi.listTaskErrors(poolSettings, afterId, limit);
     }
 
     @RequestMapping(value = "/admin/pools/{poolId}/tasks", method = RequestMethod.GET)
@@ -201,9 +223,42 @@ public class AdminController {
 
     @RequestMapping(value = "/admin/pools/{poolId}/nodes", method = RequestMethod.GET)
     @ResponseBody
-    public List<NodeModel> getMachines(@PathVariable("poolId") Long poolConfigurationId) {
+    public List<NodeModel> getMachines(@PathVariable("poolId") Long poolConfigurationId,
+                                       @RequestParam(value = "after", required = false, defaultValue = "0") long afterId,
+                                       @RequestParam(value = "limit", required = false, defaultValue = "100") int limit,
+                                       @RequestParam(value = "credentials", required = false, defaultValue = "false") boolean withCredentials) {
+        PoolSettings poolSettings = poolDao.readPoolById(poolConfigurationId).getPoolSettings();
+        return poolManagerApi.listNodes(poolSettings, afterId, limit, withCredentials);
+    }
+
+    /**
+     * Writes all of the pool's nodes as a json array, each node as it is read from the database.
+     */
+    @RequestMapping(value = "/admin/pools/{poolId}/nodes/all", method = RequestMethod.GET)
+    public void streamMachines(@PathVariable("poolId") Long poolConfigurationId,
+                               @RequestParam(value = "credentials", required = false, defaultValue = "false") boolean withCredentials,
+                               HttpServletResponse response) throws IOException {
         PoolSettings poolSettings = poolDao.readPoolById(poolConfigurationId).getPoolSettings();
-        return poolManagerApi.listNodes(poolSettings);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        final JsonGenerator generator = jsonCodec.createGenerator(response.getOutputStream());
+        try {
+            generator.writeStartArray();
+            poolManagerApi.listNodes(poolSettings, withCredentials, new NodeModelHandler() {
+                @Override
+                public void handle(NodeModel nodeModel) {
+                    try {
+                        jsonCodec.writeNodeModel(generator, nodeModel);
+                    } catch (IOException e) {
+                        // e.g. the client went away, stops reading the nodes
+                        throw new RuntimeException("failed to write node", e);
+                    }
+                }
+            });
+            generator.writeEndArray();
+        } finally {
+            generator.close();
+        }
     }
 
     @RequestMapping(value = "/admin/pools/{poolId}/nodes", method = RequestMethod.POST)
@@ -212,6 +267,12 @@ public class AdminController {
         poolManagerApi.createNode(poolSettings, null);
     }
 
+    @RequestMapping(value = "/admin/pools/{poolId}/nodes/provision", method = RequestMethod.POST)
+    public void provisionMachine(@PathVariable("poolId") Long poolConfigurationId) {
+        PoolSettings poolSettings = poolDao.readPoolById(poolConfigurationId).getPoolSettings();
+        poolManagerApi.provisionNode(poolSettings, null);
+    }
+
     @RequestMapping(value = "/admin/pools/{poolId}/nodes/{nodeId}/bootstrap", method = RequestMethod.POST)
     public void nodeBootstrap(@PathVariable("poolId") Long poolConfigurationId, @PathVariable("nodeId") Long nodeId) {
         PoolSettings poolSettings = poolDao.readPoolById(poolConfigurationId).getPoolSettings();
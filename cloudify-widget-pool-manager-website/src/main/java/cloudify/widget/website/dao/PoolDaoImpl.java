@@ -1,17 +1,18 @@
 package cloudify.widget.website.dao;
 
+import cloudify.widget.pool.manager.JsonCodec;
+import cloudify.widget.pool.manager.PoolSettingsProvider;
 import cloudify.widget.pool.manager.dto.PoolSettings;
 import cloudify.widget.website.dao.mappers.PoolRowMapper;
 import cloudify.widget.website.models.AccountModel;
 import cloudify.widget.website.models.PoolConfigurationModel;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,7 +21,7 @@ import java.util.Map;
  * User: evgenyf
  * Date: 2/27/14
  */
-public class PoolDaoImpl implements IPoolDao {
+public class PoolDaoImpl implements IPoolDao, PoolSettingsProvider {
 
     private static final String TABLE_NAME = "pool_configuration";
 
@@ -39,12 +40,8 @@ public class PoolDaoImpl implements IPoolDao {
 
     private static final Logger logger = LoggerFactory.getLogger(PoolDaoImpl.class);
 
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final PoolRowMapper poolRowMapper = new PoolRowMapper( objectMapper );
-
-    static{
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    }
+    private static final JsonCodec jsonCodec = JsonCodec.getInstance();
+    private static final PoolRowMapper poolRowMapper = new PoolRowMapper( jsonCodec );
 
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
@@ -60,7 +57,7 @@ public class PoolDaoImpl implements IPoolDao {
         PoolSettings poolSettings = poolConfiguration.getPoolSettings();
         String poolSettingsJson = null;
         try {
-            poolSettingsJson = objectMapper.writeValueAsString( poolSettings );
+            poolSettingsJson = jsonCodec.writePoolSettings( poolSettings );
         } catch (IOException e) {
             if( logger.isErrorEnabled() ){
                 logger.error( "Unable to parse poolSetting to JSON", e );
@@ -75,12 +72,12 @@ public class PoolDaoImpl implements IPoolDao {
 
         PoolSettings poolSettings = null;
         try {
-            poolSettings = objectMapper.readValue(poolSettingsJson, PoolSettings.class);
+            poolSettings = jsonCodec.readPoolSettings(poolSettingsJson);
             if (poolSettingsJson.contains("uuid")) {
                 logger.warn("uuid was received in pool settings json. it will not be persisted, and a new uuid will be generated.");
                 poolSettings.regenerateUuid();
             }
-            poolSettingsJson = objectMapper.writeValueAsString(poolSettings);
+            poolSettingsJson = jsonCodec.writePoolSettings(poolSettings);
         } catch (IOException e) {
             logger.error("failed to map pool settings from json string", e);
             e.printStackTrace();
@@ -174,11 +171,25 @@ public class PoolDaoImpl implements IPoolDao {
         return pools;
     }
 
+    /**
+     * Provides the settings of all pools to the pool manager.
+     */
+    @Override
+    public List<PoolSettings> listPoolSettings() {
+        List<PoolSettings> poolSettings = new ArrayList<PoolSettings>();
+        for (PoolConfigurationModel poolConfiguration : readPools()) {
+            if (poolConfiguration.getPoolSettings() != null) {
+                poolSettings.add(poolConfiguration.getPoolSettings());
+            }
+        }
+        return poolSettings;
+    }
+
     private static String parsePoolSettingToJson( PoolSettings poolSettings ){
 
         String poolSettingsJson = null;
         try {
-            poolSettingsJson = objectMapper.writeValueAsString( poolSettings );
+            poolSettingsJson = jsonCodec.writePoolSettings( poolSettings );
         } catch (IOException e) {
             if( logger.isErrorEnabled() ){
                 logger.error( "Unable to parse poolSetting to JSON", e );
@@ -191,7 +202,7 @@ public class PoolDaoImpl implements IPoolDao {
 
         PoolSettings poolSettings = null;
         try {
-            poolSettings = objectMapper.readValue( poolSettingsJson, PoolSettings.class );
+            poolSettings = jsonCodec.readPoolSettings( poolSettingsJson );
         } catch (IOException e) {
             if( logger.isErrorEnabled() ){
                 logger.error( "Unable to read JSON to PoolSettings instance", e );
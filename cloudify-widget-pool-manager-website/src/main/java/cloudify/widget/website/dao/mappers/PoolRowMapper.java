@@ -1,9 +1,9 @@
 package cloudify.widget.website.dao.mappers;
 
 import cloudify.widget.common.StringUtils;
+import cloudify.widget.pool.manager.JsonCodec;
 import cloudify.widget.pool.manager.dto.PoolSettings;
 import cloudify.widget.website.models.PoolConfigurationModel;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
@@ -18,12 +18,12 @@ import java.sql.SQLException;
  */
 public class PoolRowMapper implements RowMapper{
 
-    private final ObjectMapper objectMapper;
+    private final JsonCodec jsonCodec;
 
     private static final Logger logger = LoggerFactory.getLogger(PoolRowMapper.class);
 
-    public PoolRowMapper( ObjectMapper objectMapper ){
-        this.objectMapper = objectMapper;
+    public PoolRowMapper( JsonCodec jsonCodec ){
+        this.jsonCodec = jsonCodec;
     }
 
     @Override
@@ -37,7 +37,7 @@ public class PoolRowMapper implements RowMapper{
         PoolSettings poolSettings = null;
         if( !StringUtils.isEmpty( poolSettingsJson ) ) {
             try {
-                poolSettings = objectMapper.readValue(poolSettingsJson, PoolSettings.class);
+                poolSettings = jsonCodec.readPoolSettings(poolSettingsJson);
                 poolSettings.setUuid(uuid);
             } catch (IOException e) {
                 if (logger.isErrorEnabled()) {
@@ -0,0 +1,4 @@
+create index pool_configuration_account_id on pool_configuration (account_id);
+create index pool_configuration_uuid on pool_configuration (uuid);
+create index account_uuid on account (uuid);
+create index resource_account_id on resource (account_id);
@@ -0,0 +1,115 @@
+package cloudify.widget.pool.manager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates a fixed size executor with a bounded work queue.
+ * <p/>
+ * Once the queue is full, new tasks are handled according to the configured {@link RejectionPolicy}.
+ * <p/>
+ * When {@code prioritized}, queued tasks are taken by priority rather than FIFO, see {@link PriorityTaskQueue}.
+ * <p/>
+ * When {@code virtualThreads} is set and the JVM supports them, the workers are virtual threads and
+ * {@code virtualPoolSize} replaces {@code poolSize}. The pool size then acts as the bulkhead's permit count
+ * rather than a cost: idle workers time out, and a worker blocked on a cloud api or ssh session holds a permit
+ * but no platform thread. The queue and rejection policy work the same in both modes.
+ */
+public class BoundedExecutorServiceFactory implements FactoryBean<ExecutorService> {
+
+    private static Logger logger = LoggerFactory.getLogger(BoundedExecutorServiceFactory.class);
+
+    private int poolSize = 20;
+
+    private boolean virtualThreads = false;
+
+    private int virtualPoolSize = 1000;
+
+    private long virtualKeepAliveMillis = 60000;
+
+    private int queueCapacity = 100;
+
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+    private String threadNamePrefix = "task";
+
+    private boolean prioritized = false;
+
+    @Override
+    public ExecutorService getObject() throws Exception {
+        if (virtualThreads) {
+            ThreadFactory threadFactory = VirtualThreadExecutorServiceFactory.newVirtualThreadFactory(threadNamePrefix);
+            if (threadFactory != null) {
+                logger.info("running [{}] on up to [{}] virtual threads", threadNamePrefix, virtualPoolSize);
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(virtualPoolSize, virtualPoolSize,
+                        virtualKeepAliveMillis, TimeUnit.MILLISECONDS, newQueue(), threadFactory, rejectionPolicy.newHandler());
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            }
+            logger.warn("virtual threads are not supported by java [{}], running [{}] on [{}] threads",
+                    System.getProperty("java.version"), threadNamePrefix, poolSize);
+        }
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                newQueue(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(threadNamePrefix + "-%d")
+                        .build(),
+                rejectionPolicy.newHandler()
+        );
+    }
+
+    private BlockingQueue<Runnable> newQueue() {
+        return prioritized ? new PriorityTaskQueue(queueCapacity) : new LinkedBlockingQueue<Runnable>(queueCapacity);
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return ExecutorService.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return false;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public void setVirtualPoolSize(int virtualPoolSize) {
+        this.virtualPoolSize = virtualPoolSize;
+    }
+
+    public void setVirtualKeepAliveMillis(long virtualKeepAliveMillis) {
+        this.virtualKeepAliveMillis = virtualKeepAliveMillis;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    public void setPrioritized(boolean prioritized) {
+        this.prioritized = prioritized;
+    }
+}
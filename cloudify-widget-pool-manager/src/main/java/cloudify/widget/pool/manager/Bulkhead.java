@@ -0,0 +1,193 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.tasks.TaskName;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An isolated executor for the tasks of a single cloud provider.
+ * <p/>
+ * Each provider gets its own bounded thread pool, so a slow or failing provider can only exhaust its own
+ * threads. In addition, specific task types may be capped to a number of concurrently running tasks (e.g. long
+ * bootstraps), leaving the rest of the provider's threads for other tasks. Tasks over the cap wait in a bounded
+ * pending queue, and are dispatched to the executor as running tasks complete.
+ */
+public class Bulkhead {
+
+    private static Logger logger = LoggerFactory.getLogger(Bulkhead.class);
+
+    private ExecutorService executorService;
+
+    private Map<TaskName, TaskLimiter> taskLimiters = Collections.emptyMap();
+
+    private int maxPendingPerTask = 100;
+
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+
+    public void execute(QueuedTask<?> queuedTask) {
+        assert executorService != null : "executor must not be null";
+
+        TaskLimiter taskLimiter = taskLimiters.get(queuedTask.getTaskName());
+        if (taskLimiter == null) {
+            executorService.execute(queuedTask);
+        } else {
+            taskLimiter.execute(queuedTask);
+        }
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * @param taskLimits Maximum number of concurrently running tasks, per task name.
+     */
+    public void setTaskLimits(Map<TaskName, Integer> taskLimits) {
+        Map<TaskName, TaskLimiter> limiters = new EnumMap<TaskName, TaskLimiter>(TaskName.class);
+        for (Map.Entry<TaskName, Integer> entry : taskLimits.entrySet()) {
+            limiters.put(entry.getKey(), new TaskLimiter(entry.getKey(), entry.getValue()));
+        }
+        this.taskLimiters = limiters;
+    }
+
+    public void setMaxPendingPerTask(int maxPendingPerTask) {
+        this.maxPendingPerTask = maxPendingPerTask;
+    }
+
+    /**
+     * @param rejectionPolicy Applied when a task's pending queue is full.
+     */
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+
+    /**
+     * Caps the number of running tasks of a single type. Does not block submitters.
+     */
+    private class TaskLimiter {
+
+        private final TaskName taskName;
+
+        private final int limit;
+
+        // ordered like the executor's queue, i.e. by priority and then FIFO
+        private final PriorityQueue<QueuedTask<?>> pending = new PriorityQueue<QueuedTask<?>>();
+
+        private int running = 0;
+
+        TaskLimiter(TaskName taskName, int limit) {
+            this.taskName = taskName;
+            this.limit = limit;
+        }
+
+        void execute(QueuedTask<?> queuedTask) {
+            QueuedTask<?> discarded = null;
+            boolean callerRuns = false;
+            synchronized (this) {
+                if (running < limit) {
+                    running++;
+                } else if (pending.size() < maxPendingPerTask) {
+                    pending.add(queuedTask);
+                    return;
+                } else {
+                    switch (rejectionPolicy) {
+                        case CALLER_RUNS:
+                            callerRuns = true;
+                            break;
+                        case DISCARD:
+                            discarded = queuedTask;
+                            break;
+                        case DISCARD_OLDEST:
+                            // the pending queue is prioritized, so the task that would run last is dropped
+                            QueuedTask<?> last = peekLast();
+                            if (last == null || queuedTask.compareTo(last) > 0) {
+                                discarded = queuedTask;
+                            } else {
+                                pending.remove(last);
+                                pending.add(queuedTask);
+                                discarded = last;
+                            }
+                            break;
+                        default:
+                            throw new RejectedExecutionException(
+                                    String.format("too many pending [%s] tasks, limit is [%s]", taskName, maxPendingPerTask));
+                    }
+                }
+            }
+
+            if (callerRuns) {
+                // regardless of the limit, the submitter pays for it
+                logger.warn("too many pending [{}] tasks, running [{}] on the caller thread", taskName, queuedTask);
+                queuedTask.run();
+            } else if (discarded != null) {
+                logger.warn("too many pending [{}] tasks, discarding [{}]", taskName, discarded);
+                discarded.cancel();
+            } else {
+                dispatch(queuedTask);
+            }
+        }
+
+        // guarded by 'this'
+        private QueuedTask<?> peekLast() {
+            QueuedTask<?> last = null;
+            for (QueuedTask<?> queuedTask : pending) {
+                if (last == null || queuedTask.compareTo(last) > 0) {
+                    last = queuedTask;
+                }
+            }
+            return last;
+        }
+
+        private void dispatch(QueuedTask<?> queuedTask) {
+            try {
+                executorService.execute(queuedTask);
+            } catch (RejectedExecutionException e) {
+                release();
+                throw e;
+            }
+            queuedTask.getFuture().addListener(new Runnable() {
+                @Override
+                public void run() {
+                    release();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private void release() {
+            QueuedTask<?> next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            // the released slot is handed over to the next pending task
+            try {
+                dispatch(next);
+            } catch (RejectedExecutionException e) {
+                logger.warn("executor rejected pending task [{}], cancelling", next);
+                next.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package cloudify.widget.pool.manager;
+
+/**
+ * Thrown by non blocking cloud calls that were not made, or failed transiently, and should be tried again later.
+ *
+ * @see ResilientCloudServerApi#tryGet(String)
+ */
+public class CallDeferredException extends RuntimeException {
+
+    public CallDeferredException(String message) {
+        super(message);
+    }
+
+    public CallDeferredException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,164 @@
+package cloudify.widget.pool.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An error rate circuit breaker.
+ * <p/>
+ * While closed, the outcomes of the last {@code windowSize} calls are kept. Once at least {@code minimumCalls}
+ * were made and the failure rate reaches {@code failureRateThreshold}, the breaker opens and rejects calls for
+ * {@code openDurationMillis}. It then becomes half open and lets {@code halfOpenProbes} calls through: if they all
+ * succeed the breaker closes, and if any fails it opens again.
+ */
+public class CircuitBreaker {
+
+    private static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+
+    private final double failureRateThreshold;
+
+    private final int minimumCalls;
+
+    private final long openDurationMillis;
+
+    private final int halfOpenProbes;
+
+    // a ring of the last outcomes, true for a failure
+    private final boolean[] outcomes;
+
+    private int recorded;
+
+    private int next;
+
+    private int failures;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int probesInFlight;
+
+    private int probesSucceeded;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openDurationMillis, int halfOpenProbes) {
+        this.name = name;
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Must be called before every call, and followed by {@link #onSuccess()}, {@link #onFailure()} or
+     * {@link #release()} once the call is done.
+     *
+     * @throws CircuitBreakerOpenException If the breaker is open, or half open with all of its probes in flight.
+     */
+    public synchronized void acquirePermission() {
+        if (state == State.OPEN) {
+            long remaining = openedAt + openDurationMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw new CircuitBreakerOpenException(name, remaining);
+            }
+            logger.info("circuit breaker [{}] is half open, probing", name);
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probesSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                throw new CircuitBreakerOpenException(name, 0);
+            }
+            probesInFlight++;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            if (++probesSucceeded >= halfOpenProbes) {
+                logger.info("circuit breaker [{}] probes succeeded, closing", name);
+                reset();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // a call that started before the breaker opened
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            logger.warn("circuit breaker [{}] probe failed, opening again", name);
+            open();
+            return;
+        }
+        if (state == State.OPEN) {
+            // a call that started before the breaker opened
+            return;
+        }
+        record(true);
+        if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+            logger.warn("circuit breaker [{}] failure rate is [{}/{}], opening", new Object[]{name, failures, recorded});
+            open();
+        }
+    }
+
+    /**
+     * Ends a call without an outcome, e.g. one that was interrupted.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" +
+                "name='" + name + '\'' +
+                ", state=" + getState() +
+                '}';
+    }
+}
@@ -0,0 +1,11 @@
+package cloudify.widget.pool.manager;
+
+/**
+ * Thrown instead of calling a cloud whose circuit breaker is open.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    public CircuitBreakerOpenException(String breakerName, long remainingMillis) {
+        super(String.format("circuit breaker [%s] is open, calls are rejected for the next [%s] ms", breakerName, remainingMillis));
+    }
+}
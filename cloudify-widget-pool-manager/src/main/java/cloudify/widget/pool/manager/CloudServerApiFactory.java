@@ -9,6 +9,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Creates cloud server apis, guarded by the resilience policy it is configured with.
+ * <p/>
+ * Defined as a bean and injected into whoever calls the clouds, so every api it creates shares the same
+ * circuit breakers and rate limiters.
+ *
  * User: eliranm
  * Date: 3/2/14
  * Time: 3:10 PM
@@ -17,16 +22,29 @@ public class CloudServerApiFactory {
 
     private static Logger logger = LoggerFactory.getLogger(CloudServerApiFactory.class);
 
-    private CloudServerApiFactory() {
+    // apis are not guarded without it
+    private CloudServerApiResilience resilience;
+
+    public void setResilience(CloudServerApiResilience resilience) {
+        this.resilience = resilience;
     }
 
     /**
      * Creates a cloud server API according to provider name.
      *
      * @param providerName The desired provider name.
-     * @return A concrete API using the desired provider, or {@code null} if no such provider found.
+     * @return A concrete API using the desired provider, guarded by the resilience policy if one is set,
+     * or {@code null} if no such provider found.
      */
-    public static CloudServerApi create(ProviderSettings.ProviderName providerName) {
+    public CloudServerApi create(ProviderSettings.ProviderName providerName) {
+        CloudServerApi cloudServerApi = createUnguarded(providerName);
+        if (cloudServerApi == null || resilience == null) {
+            return cloudServerApi;
+        }
+        return resilience.guard(providerName, cloudServerApi);
+    }
+
+    private static CloudServerApi createUnguarded(ProviderSettings.ProviderName providerName) {
         logger.trace("creating cloud server api implementation for provider [{}]", providerName.name());
         if (ProviderSettings.ProviderName.hp == providerName) {
             return new HpCloudComputeCloudServerApi();
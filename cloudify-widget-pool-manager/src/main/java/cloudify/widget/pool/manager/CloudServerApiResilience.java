@@ -0,0 +1,208 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.api.clouds.CloudServerApi;
+import cloudify.widget.api.clouds.IConnectDetails;
+import cloudify.widget.pool.manager.dto.ProviderSettings;
+import org.jclouds.http.HttpResponseException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resilience settings for calls to the clouds, and the circuit breakers they share.
+ * <p/>
+ * There is a circuit breaker per provider and account (connect details), so tasks fail fast while a cloud
+ * is down, without affecting other accounts. Idempotent calls that fail with a transient error are retried
+ * with a jittered exponential backoff.
+ * <p/>
+ * Calls are also rate limited per provider and account, as clouds throttle api calls per account. A call that
+ * exceeds the rate waits for its turn, instead of failing on the cloud's throttling.
+ * <p/>
+ * Every {@link CloudServerApi} obtained from a {@link CloudServerApiFactory} set with this policy is guarded.
+ *
+ * @see ResilientCloudServerApi
+ */
+public class CloudServerApiResilience {
+
+    private static final Random random = new Random();
+
+    private final ConcurrentMap<AccountKey, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<AccountKey, CircuitBreaker>();
+
+    private final ConcurrentMap<AccountKey, TokenBucket> tokenBuckets = new ConcurrentHashMap<AccountKey, TokenBucket>();
+
+    // accounts of providers without a rate limit are not limited
+    private Map<ProviderSettings.ProviderName, RateLimit> rateLimits = Collections.emptyMap();
+
+    // circuit breaker
+    private int windowSize = 20;
+    private int minimumCalls = 5;
+    private double failureRateThreshold = 0.5;
+    private long openDurationMillis = 60000;
+    private int halfOpenProbes = 1;
+
+    // retries
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 1000;
+    private long maxBackoffMillis = 10000;
+    private double backoffMultiplier = 2;
+    private double jitter = 0.5; // fraction of the backoff to randomly add or subtract
+
+
+    public CloudServerApi guard(ProviderSettings.ProviderName providerName, CloudServerApi cloudServerApi) {
+        return new ResilientCloudServerApi(providerName, cloudServerApi, this);
+    }
+
+    public CircuitBreaker getCircuitBreaker(ProviderSettings.ProviderName providerName, IConnectDetails connectDetails) {
+        AccountKey key = new AccountKey(providerName, connectDetails);
+        CircuitBreaker circuitBreaker = circuitBreakers.get(key);
+        if (circuitBreaker == null) {
+            CircuitBreaker newCircuitBreaker = new CircuitBreaker(key.toString(), windowSize, minimumCalls,
+                    failureRateThreshold, openDurationMillis, halfOpenProbes);
+            circuitBreaker = circuitBreakers.putIfAbsent(key, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * @return The account's rate limiter, or {@code null} if the provider is not rate limited.
+     */
+    public TokenBucket getTokenBucket(ProviderSettings.ProviderName providerName, IConnectDetails connectDetails) {
+        RateLimit rateLimit = rateLimits.get(providerName);
+        if (rateLimit == null) {
+            return null;
+        }
+        AccountKey key = new AccountKey(providerName, connectDetails);
+        TokenBucket tokenBucket = tokenBuckets.get(key);
+        if (tokenBucket == null) {
+            TokenBucket newTokenBucket = rateLimit.newTokenBucket();
+            tokenBucket = tokenBuckets.putIfAbsent(key, newTokenBucket);
+            if (tokenBucket == null) {
+                tokenBucket = newTokenBucket;
+            }
+        }
+        return tokenBucket;
+    }
+
+    /**
+     * @return {@code true} if the failure is likely to go away on its own: i/o errors, timeouts, server errors
+     * and throttling.
+     */
+    public boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof HttpResponseException && ((HttpResponseException) cause).getResponse() != null) {
+                int statusCode = ((HttpResponseException) cause).getResponse().getStatusCode();
+                return statusCode >= 500 || statusCode == 429;
+            }
+        }
+        return false;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt The number of the attempt that failed, starting from 1.
+     * @return How long to wait before the next attempt.
+     */
+    public long getBackoffMillis(int attempt) {
+        double backoff = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(backoffMultiplier, attempt - 1));
+        long delta = (long) (backoff * jitter * (2 * random.nextDouble() - 1));
+        return Math.max(0, (long) backoff + delta);
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public void setOpenDurationMillis(long openDurationMillis) {
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public void setBackoffMultiplier(double backoffMultiplier) {
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    public void setRateLimits(Map<ProviderSettings.ProviderName, RateLimit> rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    /**
+     * Identifies an account on a provider. Connect details hold secrets, so they are never printed.
+     */
+    static class AccountKey {
+
+        private final ProviderSettings.ProviderName providerName;
+
+        private final IConnectDetails connectDetails;
+
+        AccountKey(ProviderSettings.ProviderName providerName, IConnectDetails connectDetails) {
+            this.providerName = providerName;
+            this.connectDetails = connectDetails;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            AccountKey that = (AccountKey) o;
+
+            if (providerName != that.providerName) return false;
+            if (connectDetails != null ? !connectDetails.equals(that.connectDetails) : that.connectDetails != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = providerName != null ? providerName.hashCode() : 0;
+            result = 31 * result + (connectDetails != null ? connectDetails.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return providerName + "/" + (connectDetails == null ? 0 : Integer.toHexString(connectDetails.hashCode()));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.DemandForecast;
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forecasts the occupy rate of each pool, so nodes can be made ready ahead of demand.
+ * <p/>
+ * Occupy calls are counted per pool in fixed intervals. At the end of each interval, the count is fed into a
+ * simple seasonal model: an exponentially weighted moving average of the de-seasonalized demand (the level),
+ * and a multiplicative factor per hour of the day, each smoothed separately.
+ * <p/>
+ * The number of nodes to keep ready is the demand expected during the lead time (the time it takes to provision
+ * a node), multiplied by a safety factor and capped at the pool's max nodes. The pool's min nodes apply to its
+ * total size, occupied nodes included, so they are left to the reconciler.
+ * <p/>
+ * The model is kept in memory and is relearned after a restart.
+ */
+public class DemandForecaster {
+
+    private static Logger logger = LoggerFactory.getLogger(DemandForecaster.class);
+
+    private static final int HOURS = 24;
+
+    private ScheduledExecutorService scheduler;
+
+    private long intervalMillis = 5 * 60 * 1000;
+
+    // smoothing of the level, higher values react faster
+    private double levelSmoothing = 0.3;
+
+    // smoothing of the hourly factors, each factor is updated once per interval in its hour
+    private double seasonalSmoothing = 0.1;
+
+    private long leadTimeMillis = 10 * 60 * 1000;
+
+    private double safetyFactor = 1.5;
+
+    private final ConcurrentMap<String, PoolDemand> pools = new ConcurrentHashMap<String, PoolDemand>();
+
+
+    public void init() {
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    observe(System.currentTimeMillis() - intervalMillis);
+                } catch (Exception e) {
+                    logger.error("failed to update demand models", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public void recordOccupy(String poolId) {
+        getPoolDemand(poolId).pending.incrementAndGet();
+    }
+
+    public DemandForecast getForecast(PoolSettings poolSettings) {
+        PoolDemand poolDemand = getPoolDemand(poolSettings.getUuid());
+        synchronized (poolDemand) {
+            double expectedDemand = getExpectedDemand(poolDemand, System.currentTimeMillis());
+            int target = (int) Math.ceil(expectedDemand * safetyFactor);
+            target = Math.min(poolSettings.getMaxNodes(), target);
+            return new DemandForecast()
+                    .setPoolId(poolSettings.getUuid())
+                    .setIntervalMillis(intervalMillis)
+                    .setObservations(poolDemand.observations)
+                    .setLevel(poolDemand.level)
+                    .setHourlyFactors(Arrays.copyOf(poolDemand.hourlyFactors, HOURS))
+                    .setExpectedDemand(expectedDemand)
+                    .setTargetReadyNodes(target);
+        }
+    }
+
+    /**
+     * Ends the current interval for all pools.
+     *
+     * @param intervalStart The time the interval started, which determines its hour of the day.
+     */
+    void observe(long intervalStart) {
+        int hour = hourOf(intervalStart);
+        for (Map.Entry<String, PoolDemand> entry : pools.entrySet()) {
+            PoolDemand poolDemand = entry.getValue();
+            int count = poolDemand.pending.getAndSet(0);
+            synchronized (poolDemand) {
+                poolDemand.observe(count, hour);
+            }
+            logger.trace("pool [{}] had [{}] occupy calls, level is now [{}]", new Object[]{entry.getKey(), count, poolDemand.level});
+        }
+    }
+
+    private double getExpectedDemand(PoolDemand poolDemand, long from) {
+        double expected = 0;
+        long to = from + leadTimeMillis;
+        for (long t = from; t < to; t += intervalMillis) {
+            double fraction = Math.min(intervalMillis, to - t) / (double) intervalMillis;
+            expected += poolDemand.level * poolDemand.hourlyFactors[hourOf(t)] * fraction;
+        }
+        return expected;
+    }
+
+    private PoolDemand getPoolDemand(String poolId) {
+        PoolDemand poolDemand = pools.get(poolId);
+        if (poolDemand == null) {
+            PoolDemand existing = pools.putIfAbsent(poolId, poolDemand = new PoolDemand());
+            if (existing != null) {
+                poolDemand = existing;
+            }
+        }
+        return poolDemand;
+    }
+
+    private static int hourOf(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.HOUR_OF_DAY);
+    }
+
+
+    /**
+     * The demand model of a single pool. Guarded by its own lock, apart from the pending count.
+     */
+    private class PoolDemand {
+
+        final AtomicInteger pending = new AtomicInteger();
+
+        final double[] hourlyFactors = new double[HOURS];
+
+        double level = 0;
+
+        long observations = 0;
+
+        PoolDemand() {
+            Arrays.fill(hourlyFactors, 1.0);
+        }
+
+        void observe(int count, int hour) {
+            if (observations == 0) {
+                level = count;
+            } else {
+                level = levelSmoothing * (count / hourlyFactors[hour]) + (1 - levelSmoothing) * level;
+            }
+            if (level > 0) {
+                // keep factors positive, so they can recover from quiet hours
+                double factor = Math.max(0.1, count / level);
+                hourlyFactors[hour] = seasonalSmoothing * factor + (1 - seasonalSmoothing) * hourlyFactors[hour];
+            }
+            observations++;
+        }
+    }
+
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setLevelSmoothing(double levelSmoothing) {
+        this.levelSmoothing = levelSmoothing;
+    }
+
+    public void setSeasonalSmoothing(double seasonalSmoothing) {
+        this.seasonalSmoothing = seasonalSmoothing;
+    }
+
+    public void setLeadTimeMillis(long leadTimeMillis) {
+        this.leadTimeMillis = leadTimeMillis;
+    }
+
+    public void setSafetyFactor(double safetyFactor) {
+        this.safetyFactor = safetyFactor;
+    }
+}
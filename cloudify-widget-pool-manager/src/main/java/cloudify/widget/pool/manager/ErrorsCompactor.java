@@ -0,0 +1,123 @@
+package cloudify.widget.pool.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically deletes old errors, so the errors table does not grow forever:
+ * <ul>
+ * <li>errors last seen more than {@code maxAgeMillis} ago are deleted.</li>
+ * <li>each pool keeps only its newest {@code maxRowsPerPool} errors.</li>
+ * </ul>
+ * Rows are deleted in chunks of {@code deleteBatchSize}, so a large cleanup does not hold locks on the table for
+ * long. Errors written before occurrences were tracked (see sql/6.sql) have no last seen time, and are only
+ * deleted by the per pool cap.
+ */
+public class ErrorsCompactor {
+
+    private static Logger logger = LoggerFactory.getLogger(ErrorsCompactor.class);
+
+    private ErrorsDao errorsDao;
+
+    private ScheduledExecutorService scheduler;
+
+    private boolean enabled = true;
+
+    private long intervalMillis = 60 * 60 * 1000;
+
+    // non positive means errors never expire
+    private long maxAgeMillis = 7 * 24 * 60 * 60 * 1000L;
+
+    // non positive means pools are not capped
+    private int maxRowsPerPool = 1000;
+
+    private int deleteBatchSize = 1000;
+
+    public void init() {
+        if (!enabled) {
+            logger.info("errors compactor is disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    // keep the schedule alive
+                    logger.error("failed to compact errors", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs a single compaction.
+     *
+     * @return The number of errors deleted.
+     */
+    public int compact() {
+        int deleted = 0;
+        if (maxAgeMillis > 0) {
+            long cutoff = System.currentTimeMillis() - maxAgeMillis;
+            int deletedChunk;
+            do {
+                deletedChunk = errorsDao.deleteOlderThan(cutoff, deleteBatchSize);
+                deleted += deletedChunk;
+            } while (deletedChunk == deleteBatchSize && !Thread.currentThread().isInterrupted());
+        }
+        if (maxRowsPerPool > 0) {
+            for (String poolId : errorsDao.readPoolIds()) {
+                // the newest error beyond the cap, it and every older error of the pool are deleted
+                Long cutoffId = errorsDao.readNthNewestIdOfPool(poolId, maxRowsPerPool);
+                if (cutoffId == null) {
+                    continue;
+                }
+                int deletedChunk;
+                do {
+                    deletedChunk = errorsDao.deleteOfPoolUpTo(poolId, cutoffId, deleteBatchSize);
+                    deleted += deletedChunk;
+                } while (deletedChunk == deleteBatchSize && !Thread.currentThread().isInterrupted());
+            }
+        }
+        if (deleted > 0) {
+            logger.info("deleted [{}] errors", deleted);
+        }
+        return deleted;
+    }
+
+    public void setErrorsDao(ErrorsDao errorsDao) {
+        this.errorsDao = errorsDao;
+    }
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public void setMaxRowsPerPool(int maxRowsPerPool) {
+        this.maxRowsPerPool = maxRowsPerPool;
+    }
+
+    public void setDeleteBatchSize(int deleteBatchSize) {
+        this.deleteBatchSize = deleteBatchSize;
+    }
+}
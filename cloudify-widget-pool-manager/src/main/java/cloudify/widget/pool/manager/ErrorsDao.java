@@ -1,16 +1,20 @@
 package cloudify.widget.pool.manager;
 
 import cloudify.widget.pool.manager.dto.ErrorModel;
+import cloudify.widget.pool.manager.tasks.TaskName;
 import com.mysql.jdbc.Statement;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
@@ -27,6 +31,25 @@ public class ErrorsDao {
     public static final String COL_POOL_ID = "pool_id";
     public static final String COL_MESSAGE = "message";
     public static final String COL_INFO = "info";
+    public static final String COL_OCCURRENCES = "occurrences";
+    public static final String COL_FIRST_SEEN = "first_seen";
+    public static final String COL_LAST_SEEN = "last_seen";
+
+    private static final String COLUMNS = COL_ERROR_ID + "," + COL_TASK_NAME + "," + COL_POOL_ID + "," + COL_MESSAGE + "," + COL_INFO + "," + COL_OCCURRENCES + "," + COL_FIRST_SEEN + "," + COL_LAST_SEEN;
+    static final String SQL_INSERT = "insert into " + TABLE_NAME + " (" + COL_TASK_NAME + "," + COL_POOL_ID + "," + COL_MESSAGE + "," + COL_INFO + "," + COL_OCCURRENCES + "," + COL_FIRST_SEEN + "," + COL_LAST_SEEN + ") values (?, ?, ?, ?, ?, ?, ?)";
+    static final String SQL_SELECT = "select " + COLUMNS + " from " + TABLE_NAME;
+    static final String SQL_SELECT_BY_ID = SQL_SELECT + " where " + COL_ERROR_ID + " = ?";
+    static final String SQL_SELECT_OF_POOL = SQL_SELECT + " where " + COL_POOL_ID + " = ?";
+    static final String SQL_SELECT_PAGE_OF_POOL = SQL_SELECT + " where " + COL_POOL_ID + " = ? and " + COL_ERROR_ID + " > ? order by " + COL_ERROR_ID + " limit ?";
+    static final String SQL_SELECT_POOL_IDS = "select distinct " + COL_POOL_ID + " from " + TABLE_NAME;
+    static final String SQL_SELECT_NTH_NEWEST_ID_OF_POOL = "select " + COL_ERROR_ID + " from " + TABLE_NAME + " where " + COL_POOL_ID + " = ? order by " + COL_ERROR_ID + " desc limit 1 offset ?";
+    static final String SQL_DELETE_OLDER_THAN = "delete from " + TABLE_NAME + " where " + COL_LAST_SEEN + " < ? limit ?";
+    static final String SQL_DELETE_OF_POOL_UP_TO_ID = "delete from " + TABLE_NAME + " where " + COL_POOL_ID + " = ? and " + COL_ERROR_ID + " <= ? limit ?";
+    static final String SQL_UPDATE = "update " + TABLE_NAME + " set " + COL_TASK_NAME + " = ?," + COL_POOL_ID + " = ?," + COL_MESSAGE + " = ?," + COL_INFO + " = ?," + COL_OCCURRENCES + " = ?," + COL_FIRST_SEEN + " = ?," + COL_LAST_SEEN + " = ? where " + COL_ERROR_ID + " = ?";
+    static final String SQL_ADD_OCCURRENCES = "update " + TABLE_NAME + " set " + COL_OCCURRENCES + " = " + COL_OCCURRENCES + " + ?," + COL_LAST_SEEN + " = ?," + COL_INFO + " = ? where " + COL_ERROR_ID + " = ?";
+    static final String SQL_DELETE = "delete from " + TABLE_NAME + " where " + COL_ERROR_ID + " = ?";
+
+    public static final RowMapper<ErrorModel> ERROR_MODEL_ROW_MAPPER = new ErrorModelRowMapper();
 
     private JdbcTemplate jdbcTemplate;
 
@@ -44,13 +67,10 @@ public class ErrorsDao {
                     @Override
                     public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
                         PreparedStatement ps = con.prepareStatement(
-                                "insert into " + TABLE_NAME + " (" + COL_TASK_NAME + "," + COL_POOL_ID + "," + COL_MESSAGE + "," + COL_INFO + ") values (?, ?, ?, ?)",
+                                SQL_INSERT,
                                 Statement.RETURN_GENERATED_KEYS // specify to populate the generated key holder
                         );
-                        ps.setString(1, errorModel.taskName.name());
-                        ps.setString(2, errorModel.poolId);
-                        ps.setString(3, errorModel.message);
-                        ps.setString(4, errorModel.info);
+                        setInsertParameters(ps, errorModel);
                         return ps;
                     }
                 },
@@ -63,30 +83,163 @@ public class ErrorsDao {
         return affected > 0;
     }
 
+    /**
+     * Inserts all errors in a single JDBC batch, and updates them with their generated ids.
+     *
+     * @return The number of errors inserted.
+     */
+    public int createAll(final List<ErrorModel> errorModels) {
+        if (errorModels.isEmpty()) {
+            return 0;
+        }
+
+        return jdbcTemplate.execute(
+                new PreparedStatementCreator() {
+                    @Override
+                    public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                        return con.prepareStatement(SQL_INSERT, Statement.RETURN_GENERATED_KEYS);
+                    }
+                },
+                new PreparedStatementCallback<Integer>() {
+                    @Override
+                    public Integer doInPreparedStatement(PreparedStatement ps) throws SQLException {
+                        for (ErrorModel errorModel : errorModels) {
+                            setInsertParameters(ps, errorModel);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+
+                        // keep data integrity - generated keys are returned in insertion order
+                        int inserted = 0;
+                        ResultSet keys = ps.getGeneratedKeys();
+                        try {
+                            while (keys.next() && inserted < errorModels.size()) {
+                                errorModels.get(inserted++).id = keys.getLong(1);
+                            }
+                        } finally {
+                            keys.close();
+                        }
+                        return inserted;
+                    }
+                }
+        );
+    }
+
+    /**
+     * Adds the occurrences of each of the given errors to the existing row with the same id, in a single JDBC batch.
+     * The row's last seen time and info are replaced.
+     *
+     * @return The number of rows updated per error, {@code 0} if the error's row no longer exists.
+     */
+    public int[] addOccurrences(final List<ErrorModel> errorModels) {
+        return jdbcTemplate.batchUpdate(SQL_ADD_OCCURRENCES, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ErrorModel errorModel = errorModels.get(i);
+                ps.setInt(1, errorModel.occurrences);
+                ps.setLong(2, errorModel.lastSeen);
+                ps.setString(3, errorModel.info);
+                ps.setLong(4, errorModel.id);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return errorModels.size();
+            }
+        });
+    }
+
+    private static void setInsertParameters(PreparedStatement ps, ErrorModel errorModel) throws SQLException {
+        ps.setString(1, errorModel.taskName.name());
+        ps.setString(2, errorModel.poolId);
+        ps.setString(3, errorModel.message);
+        ps.setString(4, errorModel.info);
+        ps.setInt(5, errorModel.occurrences);
+        ps.setLong(6, errorModel.firstSeen);
+        ps.setLong(7, errorModel.lastSeen);
+    }
+
     public List<ErrorModel> readAllOfPool(String poolId) {
-        return jdbcTemplate.query("select * from " + TABLE_NAME + " where " + COL_POOL_ID + " = ?",
-                new Object[]{poolId},
-                new BeanPropertyRowMapper<ErrorModel>(ErrorModel.class));
+        return jdbcTemplate.query(SQL_SELECT_OF_POOL, new Object[]{poolId}, ERROR_MODEL_ROW_MAPPER);
+    }
+
+    /**
+     * Reads a page of the pool's errors, by ascending id. The next page starts after the last id of this page.
+     *
+     * @param afterId Only errors with a greater id are read, {@code 0} for the first page.
+     */
+    public List<ErrorModel> readAllOfPool(String poolId, long afterId, int limit) {
+        return jdbcTemplate.query(SQL_SELECT_PAGE_OF_POOL, new Object[]{poolId, afterId, limit}, ERROR_MODEL_ROW_MAPPER);
+    }
+
+    public List<String> readPoolIds() {
+        return jdbcTemplate.queryForList(SQL_SELECT_POOL_IDS, String.class);
+    }
+
+    /**
+     * @return The id of the pool's n-th newest error (starting at 0), or {@code null} if the pool has no more
+     * than n errors.
+     */
+    public Long readNthNewestIdOfPool(String poolId, int n) {
+        List<Long> ids = jdbcTemplate.queryForList(SQL_SELECT_NTH_NEWEST_ID_OF_POOL, new Object[]{poolId, n}, Long.class);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Deletes up to {@code limit} errors that were last seen before the given time.
+     *
+     * @return The number of errors deleted.
+     */
+    public int deleteOlderThan(long lastSeen, int limit) {
+        return jdbcTemplate.update(SQL_DELETE_OLDER_THAN, lastSeen, limit);
+    }
+
+    /**
+     * Deletes up to {@code limit} of the pool's errors, with an id up to the given id.
+     *
+     * @return The number of errors deleted.
+     */
+    public int deleteOfPoolUpTo(String poolId, long errorId, int limit) {
+        return jdbcTemplate.update(SQL_DELETE_OF_POOL_UP_TO_ID, poolId, errorId, limit);
     }
 
     public ErrorModel read(long errorId) {
         try {
-            return jdbcTemplate.queryForObject("select * from " + TABLE_NAME + " where " + COL_ERROR_ID + " = ?",
-                    new Object[]{errorId},
-                    new BeanPropertyRowMapper<ErrorModel>(ErrorModel.class));
+            return jdbcTemplate.queryForObject(SQL_SELECT_BY_ID, new Object[]{errorId}, ERROR_MODEL_ROW_MAPPER);
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
     }
 
     public int update(ErrorModel errorModel) {
-        return jdbcTemplate.update(
-                "update " + TABLE_NAME + " set " + COL_TASK_NAME + " = ?," + COL_POOL_ID + " = ?," + COL_MESSAGE + " = ?," + COL_INFO + " = ? where " + COL_ERROR_ID + " = ?",
-                errorModel.taskName.name(), errorModel.poolId, errorModel.message, errorModel.info, errorModel.id);
+        return jdbcTemplate.update(SQL_UPDATE,
+                errorModel.taskName.name(), errorModel.poolId, errorModel.message, errorModel.info,
+                errorModel.occurrences, errorModel.firstSeen, errorModel.lastSeen, errorModel.id);
     }
 
     public int delete(long errorId) {
-        return jdbcTemplate.update("delete from " + TABLE_NAME + " where " + COL_ERROR_ID + " = ?", errorId);
+        return jdbcTemplate.update(SQL_DELETE, errorId);
+    }
+
+    /**
+     * Maps the columns of {@link #COLUMNS}. Stateless, so a single instance is shared by all queries.
+     */
+    public static class ErrorModelRowMapper implements RowMapper<ErrorModel> {
+
+        @Override
+        public ErrorModel mapRow(ResultSet rs, int rowNum) throws SQLException {
+            ErrorModel errorModel = new ErrorModel();
+            errorModel.id = rs.getLong(COL_ERROR_ID);
+            String taskName = rs.getString(COL_TASK_NAME);
+            errorModel.taskName = taskName == null ? null : TaskName.valueOf(taskName);
+            errorModel.poolId = rs.getString(COL_POOL_ID);
+            errorModel.message = rs.getString(COL_MESSAGE);
+            errorModel.info = rs.getString(COL_INFO);
+            errorModel.occurrences = rs.getInt(COL_OCCURRENCES);
+            errorModel.firstSeen = rs.getLong(COL_FIRST_SEEN);
+            errorModel.lastSeen = rs.getLong(COL_LAST_SEEN);
+            return errorModel;
+        }
     }
 
 }
@@ -0,0 +1,225 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.ErrorModel;
+import cloudify.widget.pool.manager.tasks.TaskName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records task errors asynchronously, so a failing task does not wait for the database.
+ * <p/>
+ * Errors are queued in memory and written in batches by a background flusher. Errors with the same pool, task
+ * and message are written as a single row, with the number of occurrences and the first and last time they were
+ * seen. An error that was written in the last {@code dedupWindowMillis} is not written again, its row's
+ * occurrences are increased instead. This way, an error storm (e.g. a provider outage) becomes a handful of rows.
+ * <p/>
+ * The queue is bounded by {@code maxPending} distinct errors. Beyond that, new errors are dropped and counted.
+ */
+public class ErrorsJournal {
+
+    private static Logger logger = LoggerFactory.getLogger(ErrorsJournal.class);
+
+    private ErrorsDao errorsDao;
+
+    private ScheduledExecutorService scheduler;
+
+    private long flushIntervalMillis = 1000;
+
+    private long dedupWindowMillis = 10 * 60 * 1000;
+
+    private int maxPending = 1000;
+
+    // guarded by 'this'
+    private Map<Key, ErrorModel> pending = new LinkedHashMap<Key, ErrorModel>();
+
+    // guarded by 'this'
+    private long dropped = 0;
+
+    // rows written in the dedup window, guarded by 'flushLock'
+    private final Map<Key, ErrorModel> written = new HashMap<Key, ErrorModel>();
+
+    private final Object flushLock = new Object();
+
+    public void init() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    // keep the schedule alive
+                    logger.error("failed to flush errors", e);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the flusher, and writes the errors that are still queued.
+     */
+    public void destroy() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public void record(ErrorModel errorModel) {
+        Key key = new Key(errorModel);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            ErrorModel queued = pending.get(key);
+            if (queued != null) {
+                queued.occurrences++;
+                queued.lastSeen = now;
+                if (errorModel.info != null) {
+                    queued.info = errorModel.info;
+                }
+                return;
+            }
+            if (pending.size() >= maxPending) {
+                dropped++;
+                return;
+            }
+            errorModel.occurrences = 1;
+            errorModel.firstSeen = now;
+            errorModel.lastSeen = now;
+            pending.put(key, errorModel);
+        }
+    }
+
+    /**
+     * Writes the queued errors. Errors that fail to be written are dropped, so a database outage does not grow
+     * the queue.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Key, ErrorModel> flushing;
+            long droppedCount;
+            synchronized (this) {
+                flushing = pending;
+                droppedCount = dropped;
+                pending = new LinkedHashMap<Key, ErrorModel>();
+                dropped = 0;
+            }
+            if (droppedCount > 0) {
+                logger.warn("dropped [{}] errors, more than [{}] distinct errors were queued", droppedCount, maxPending);
+            }
+            if (flushing.isEmpty()) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            Iterator<ErrorModel> writtenIterator = written.values().iterator();
+            while (writtenIterator.hasNext()) {
+                if (now - writtenIterator.next().lastSeen > dedupWindowMillis) {
+                    writtenIterator.remove();
+                }
+            }
+
+            List<Key> updatedKeys = new ArrayList<Key>();
+            List<ErrorModel> updates = new ArrayList<ErrorModel>();
+            List<Key> insertedKeys = new ArrayList<Key>();
+            List<ErrorModel> inserts = new ArrayList<ErrorModel>();
+            for (Map.Entry<Key, ErrorModel> entry : flushing.entrySet()) {
+                ErrorModel row = written.get(entry.getKey());
+                if (row != null) {
+                    entry.getValue().id = row.id;
+                    updatedKeys.add(entry.getKey());
+                    updates.add(entry.getValue());
+                } else {
+                    insertedKeys.add(entry.getKey());
+                    inserts.add(entry.getValue());
+                }
+            }
+
+            try {
+                if (!updates.isEmpty()) {
+                    int[] updated = errorsDao.addOccurrences(updates);
+                    for (int i = 0; i < updated.length; i++) {
+                        if (updated[i] == 0) {
+                            // the row was deleted meanwhile
+                            ErrorModel errorModel = updates.get(i);
+                            errorModel.id = ErrorModel.INITIAL_ID;
+                            insertedKeys.add(updatedKeys.get(i));
+                            inserts.add(errorModel);
+                        } else {
+                            written.get(updatedKeys.get(i)).lastSeen = updates.get(i).lastSeen;
+                        }
+                    }
+                }
+                errorsDao.createAll(inserts);
+                for (int i = 0; i < inserts.size(); i++) {
+                    written.put(insertedKeys.get(i), new ErrorModel().setId(inserts.get(i).id).setLastSeen(inserts.get(i).lastSeen));
+                }
+                logger.debug("flushed [{}] errors, [{}] new", flushing.size(), inserts.size());
+            } catch (RuntimeException e) {
+                logger.error(String.format("failed to write [%s] errors, dropping them", flushing.size()), e);
+            }
+        }
+    }
+
+    public void setErrorsDao(ErrorsDao errorsDao) {
+        this.errorsDao = errorsDao;
+    }
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public void setDedupWindowMillis(long dedupWindowMillis) {
+        this.dedupWindowMillis = dedupWindowMillis;
+    }
+
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    private static class Key {
+
+        final String poolId;
+
+        final TaskName taskName;
+
+        final String message;
+
+        Key(ErrorModel errorModel) {
+            this.poolId = errorModel.poolId;
+            this.taskName = errorModel.taskName;
+            this.message = errorModel.message;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (message != null ? !message.equals(key.message) : key.message != null) return false;
+            if (poolId != null ? !poolId.equals(key.poolId) : key.poolId != null) return false;
+            if (taskName != key.taskName) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = poolId != null ? poolId.hashCode() : 0;
+            result = 31 * result + (taskName != null ? taskName.hashCode() : 0);
+            result = 31 * result + (message != null ? message.hashCode() : 0);
+            return result;
+        }
+    }
+}
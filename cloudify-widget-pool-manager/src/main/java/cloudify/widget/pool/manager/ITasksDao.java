@@ -11,8 +11,18 @@ import java.util.List;
  * Time: 12:46 PM
  */
 public interface ITasksDao {
+    public List<TaskModel> readAll();
+
+    /**
+     * @return The tasks a restarted instance should replay: its own, and those abandoned by other instances, i.e.
+     * which started before {@code abandonedBefore}.
+     */
+    public List<TaskModel> readAllToReplay(long abandonedBefore);
+
     public List<TaskModel> readAllOfPool(String poolId);
 
+    public List<TaskModel> readAllOfNode(long nodeId);
+
     public TaskModel read(long taskId);
 
     public boolean create(TaskModel taskModel);
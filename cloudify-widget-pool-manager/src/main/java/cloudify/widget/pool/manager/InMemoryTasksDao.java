@@ -1,80 +1,253 @@
 package cloudify.widget.pool.manager;
 
-import cloudify.widget.common.CollectionUtils;
 import cloudify.widget.pool.manager.dto.TaskModel;
 
-import org.apache.commons.collections.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created with IntelliJ IDEA.
  * User: guym
  * Date: 3/20/14
  * Time: 12:46 PM
+ * <p/>
+ * A thread safe tasks registry, indexed by id, pool and node.
+ * <p/>
+ * Tasks are stored and returned as copies, so reads are consistent snapshots that do not change under the caller.
+ * Tasks that were not created or updated within {@code ttlMillis} are assumed to have lost their worker, and are
+ * evicted.
  */
 public class InMemoryTasksDao implements ITasksDao {
 
     private static Logger logger = LoggerFactory.getLogger(InMemoryTasksDao.class);
 
-    List<TaskModel> tasks = new LinkedList<TaskModel>();
-    AtomicLong idCounter = new AtomicLong(0);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // insertion ordered, so reads list tasks by id
+    private final Map<Long, Entry> tasks = new LinkedHashMap<Long, Entry>();
+
+    private final Map<String, Set<Long>> tasksByPool = new HashMap<String, Set<Long>>();
+
+    private final Map<Long, Set<Long>> tasksByNode = new HashMap<Long, Set<Long>>();
+
+    private final AtomicLong idCounter = new AtomicLong(0);
+
+    // non positive means tasks are never evicted
+    private long ttlMillis = 0;
+
+    private volatile long lastEvictionTime = System.currentTimeMillis();
 
     @Override
-    public List<TaskModel> readAllOfPool(final String poolId) {
-        logger.trace("getting all tasks for pool [{}]", poolId);
-        Collection<TaskModel> result =  (Collection<TaskModel>) CollectionUtils.select( tasks, new Predicate() {
-            @Override
-            public boolean evaluate(Object object) {
-                try{
-                 return ((TaskModel)object).getPoolId().equals(poolId);
-                }catch(Exception e){
-                    logger.error("error while selecting tasks for pool",e);
-                    return false;
-                }
+    public List<TaskModel> readAll() {
+        evictExpired();
+        lock.readLock().lock();
+        try {
+            List<TaskModel> result = new ArrayList<TaskModel>(tasks.size());
+            for (Entry entry : tasks.values()) {
+                result.add(copy(entry.taskModel));
             }
-        });
-        return new LinkedList<TaskModel>(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
+    /**
+     * All tasks, since the registry is not shared with other instances.
+     */
     @Override
-    public TaskModel read(final long taskId) {
-        logger.info("reading task [{}]", taskId);
-        return (TaskModel) CollectionUtils.find(tasks, new Predicate() {
-            @Override
-            public boolean evaluate(Object object) {
-                return ((TaskModel) object).getId() == taskId;
+    public List<TaskModel> readAllToReplay(long abandonedBefore) {
+        return readAll();
+    }
 
-            }
-        });
+    @Override
+    public List<TaskModel> readAllOfPool(String poolId) {
+        logger.trace("getting all tasks for pool [{}]", poolId);
+        evictExpired();
+        lock.readLock().lock();
+        try {
+            return readAllOf(tasksByPool.get(poolId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<TaskModel> readAllOfNode(long nodeId) {
+        evictExpired();
+        lock.readLock().lock();
+        try {
+            return readAllOf(tasksByNode.get(nodeId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
+    @Override
+    public TaskModel read(long taskId) {
+        logger.trace("reading task [{}]", taskId);
+        lock.readLock().lock();
+        try {
+            Entry entry = tasks.get(taskId);
+            return entry == null ? null : copy(entry.taskModel);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     @Override
     public boolean create(TaskModel taskModel) {
-        taskModel.setId( idCounter.incrementAndGet());
+        taskModel.setId(idCounter.incrementAndGet());
         logger.info("creating task [{}]", taskModel.getId());
-        tasks.add(taskModel);
+        evictExpired();
+        lock.writeLock().lock();
+        try {
+            put(copy(taskModel));
+        } finally {
+            lock.writeLock().unlock();
+        }
         return true;
     }
 
     @Override
     public int delete(long taskId) {
-        logger.info("deleting task " + taskId);
-        tasks.remove( read(taskId));
-        return 1;
+        logger.info("deleting task [{}]", taskId);
+        lock.writeLock().lock();
+        try {
+            return remove(taskId) == null ? 0 : 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
     public int update(TaskModel taskModel) {
-        return 1;
+        lock.writeLock().lock();
+        try {
+            Entry entry = tasks.get(taskModel.getId());
+            if (entry == null) {
+                return 0;
+            }
+            unindex(entry.taskModel);
+            put(copy(taskModel));
+            return 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evicts expired tasks, at most once per {@code ttlMillis}.
+     */
+    private void evictExpired() {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastEvictionTime < ttlMillis) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            lastEvictionTime = now;
+            List<Long> expired = new LinkedList<Long>();
+            for (Entry entry : tasks.values()) {
+                if (now - entry.touchedAt > ttlMillis) {
+                    expired.add(entry.taskModel.id);
+                }
+            }
+            for (Long taskId : expired) {
+                logger.warn("evicting task [{}], it was not updated for over [{}] ms", remove(taskId).taskModel, ttlMillis);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the following must be called while holding the lock
+
+    private List<TaskModel> readAllOf(Set<Long> taskIds) {
+        if (taskIds == null) {
+            return new ArrayList<TaskModel>(0);
+        }
+        List<TaskModel> result = new ArrayList<TaskModel>(taskIds.size());
+        for (Long taskId : taskIds) {
+            result.add(copy(tasks.get(taskId).taskModel));
+        }
+        return result;
+    }
+
+    // replacing an existing task keeps its place in the insertion order
+    private void put(TaskModel taskModel) {
+        tasks.put(taskModel.id, new Entry(taskModel, System.currentTimeMillis()));
+        index(tasksByPool, taskModel.poolId, taskModel.id);
+        if (taskModel.nodeId > 0) {
+            index(tasksByNode, taskModel.nodeId, taskModel.id);
+        }
+    }
+
+    private Entry remove(long taskId) {
+        Entry entry = tasks.remove(taskId);
+        if (entry != null) {
+            unindex(entry.taskModel);
+        }
+        return entry;
+    }
+
+    private void unindex(TaskModel taskModel) {
+        unindex(tasksByPool, taskModel.poolId, taskModel.id);
+        unindex(tasksByNode, taskModel.nodeId, taskModel.id);
+    }
+
+    private static <K> void index(Map<K, Set<Long>> index, K key, long taskId) {
+        Set<Long> taskIds = index.get(key);
+        if (taskIds == null) {
+            taskIds = new TreeSet<Long>();
+            index.put(key, taskIds);
+        }
+        taskIds.add(taskId);
+    }
+
+    private static <K> void unindex(Map<K, Set<Long>> index, K key, long taskId) {
+        Set<Long> taskIds = index.get(key);
+        if (taskIds != null) {
+            taskIds.remove(taskId);
+            if (taskIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
     }
 
+    private static TaskModel copy(TaskModel taskModel) {
+        TaskModel copy = new TaskModel()
+                .setTaskName(taskModel.taskName)
+                .setPoolId(taskModel.poolId)
+                .setNodeId(taskModel.nodeId)
+                .setTaskState(taskModel.taskState)
+                .setOwner(taskModel.owner);
+        copy.setId(taskModel.id);
+        copy.startTime = taskModel.startTime;
+        return copy;
+    }
 
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    private static class Entry {
+
+        final TaskModel taskModel;
+
+        final long touchedAt;
+
+        Entry(TaskModel taskModel, long touchedAt) {
+            this.taskModel = taskModel;
+            this.touchedAt = touchedAt;
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.api.clouds.MachineCredentials;
+import cloudify.widget.api.clouds.MachineOptions;
+import cloudify.widget.pool.manager.dto.ErrorModel;
+import cloudify.widget.pool.manager.dto.NodeModel;
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * Reads and writes the pool manager's json.
+ * <p/>
+ * Jackson introspects a type the first time it is read or written by a mapper, so a mapper created per call
+ * repeats it every time. This codec builds its readers and writers once. They are immutable, and shared by all
+ * threads. Since dtos can't be injected, the codec is a singleton, see {@link #getInstance()}.
+ * <p/>
+ * Unknown properties are ignored when reading, so json written by a newer version can still be read.
+ */
+public class JsonCodec {
+
+    private static final JsonCodec instance = new JsonCodec();
+
+    // for types only known at runtime, the mapper caches their serializers and deserializers itself
+    private final ObjectMapper objectMapper;
+
+    private final JsonFactory jsonFactory;
+
+    private final ObjectWriter nodeModelWriter;
+
+    private final ObjectReader nodeModelReader;
+
+    private final ObjectWriter errorModelWriter;
+
+    private final ObjectReader errorModelReader;
+
+    private final ObjectWriter machineCredentialsWriter;
+
+    private final ObjectReader machineCredentialsReader;
+
+    private final ObjectWriter poolSettingsWriter;
+
+    private final ObjectReader poolSettingsReader;
+
+    private JsonCodec() {
+        objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        // the factory's codec is the mapper, so generators can write any value
+        jsonFactory = objectMapper.getJsonFactory();
+        nodeModelWriter = objectMapper.writerWithType(NodeModel.class);
+        nodeModelReader = objectMapper.reader(NodeModel.class);
+        errorModelWriter = objectMapper.writerWithType(ErrorModel.class);
+        errorModelReader = objectMapper.reader(ErrorModel.class);
+        machineCredentialsWriter = objectMapper.writerWithType(MachineCredentials.class);
+        machineCredentialsReader = objectMapper.reader(MachineCredentials.class);
+        poolSettingsWriter = objectMapper.writerWithType(PoolSettings.class);
+        poolSettingsReader = objectMapper.reader(PoolSettings.class);
+    }
+
+    public static JsonCodec getInstance() {
+        return instance;
+    }
+
+    public String writeNodeModel(NodeModel nodeModel) throws IOException {
+        return nodeModelWriter.writeValueAsString(nodeModel);
+    }
+
+    public NodeModel readNodeModel(String json) throws IOException {
+        return nodeModelReader.readValue(json);
+    }
+
+    public String writeErrorModel(ErrorModel errorModel) throws IOException {
+        return errorModelWriter.writeValueAsString(errorModel);
+    }
+
+    public ErrorModel readErrorModel(String json) throws IOException {
+        return errorModelReader.readValue(json);
+    }
+
+    public String writeMachineCredentials(MachineCredentials machineCredentials) throws IOException {
+        return machineCredentialsWriter.writeValueAsString(machineCredentials);
+    }
+
+    public MachineCredentials readMachineCredentials(String json) throws IOException {
+        return machineCredentialsReader.readValue(json);
+    }
+
+    public String writePoolSettings(PoolSettings poolSettings) throws IOException {
+        return poolSettingsWriter.writeValueAsString(poolSettings);
+    }
+
+    public PoolSettings readPoolSettings(String json) throws IOException {
+        return poolSettingsReader.readValue(json);
+    }
+
+    /**
+     * Copies machine options of any provider through their bean properties, as they are read from the pool
+     * settings json, with some of the properties replaced.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends MachineOptions> T copyMachineOptions(T machineOptions, Map<String, Object> overrides) {
+        Map<String, Object> properties = objectMapper.convertValue(machineOptions, Map.class);
+        properties.putAll(overrides);
+        return (T) objectMapper.convertValue(properties, machineOptions.getClass());
+    }
+
+    /**
+     * Writes a map as a json object, e.g. the info of an {@link ErrorModel}. Strings, numbers and booleans are
+     * written directly to the generator, other values are written by the mapper.
+     */
+    public String writeMap(Map<String, Object> map) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = jsonFactory.createJsonGenerator(writer);
+        try {
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                Object value = entry.getValue();
+                if (value == null) {
+                    generator.writeNull();
+                } else if (value instanceof String) {
+                    generator.writeString((String) value);
+                } else if (value instanceof Integer) {
+                    generator.writeNumber((Integer) value);
+                } else if (value instanceof Long) {
+                    generator.writeNumber((Long) value);
+                } else if (value instanceof Boolean) {
+                    generator.writeBoolean((Boolean) value);
+                } else {
+                    generator.writeObject(value);
+                }
+            }
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * @return A generator writing utf-8 json to the stream, e.g. to write a list one item at a time with
+     * {@link #writeNodeModel(JsonGenerator, NodeModel)}. Closing the generator closes the stream.
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+    }
+
+    /**
+     * Writes a node field by field, producing the same json as {@link #writeNodeModel(NodeModel)} without going
+     * through the mapper for every node.
+     */
+    public void writeNodeModel(JsonGenerator generator, NodeModel nodeModel) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", nodeModel.id);
+        generator.writeStringField("poolId", nodeModel.poolId);
+        if (nodeModel.nodeStatus == null) {
+            generator.writeNullField("nodeStatus");
+        } else {
+            generator.writeStringField("nodeStatus", nodeModel.nodeStatus.name());
+        }
+        generator.writeStringField("machineId", nodeModel.machineId);
+        generator.writeStringField("machineCredentials", nodeModel.machineCredentials);
+        generator.writeEndObject();
+    }
+}
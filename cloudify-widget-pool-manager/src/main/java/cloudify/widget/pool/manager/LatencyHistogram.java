@@ -0,0 +1,96 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.LatencySummary;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in milliseconds, with log-linear buckets.
+ * <p/>
+ * Values up to 8 are counted exactly. Above that, every power of two range is split into 8 equal buckets,
+ * so a reported percentile is at most 12.5% above the recorded value, regardless of its magnitude.
+ * This covers anything from a quick database task to an hour long bootstrap in under 500 counters.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        counts.incrementAndGet(indexOf(millis));
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long currentMax;
+        while (millis > (currentMax = max.get()) && !max.compareAndSet(currentMax, millis)) {
+            // retry until the max is ours or a bigger value won
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile A value between 0 and 100.
+     * @return The upper bound of the bucket holding the given percentile, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        // concurrent records may be counted in the total but not yet in their bucket
+        return max.get();
+    }
+
+    public LatencySummary summarize() {
+        long total = count.get();
+        return new LatencySummary()
+                .setCount(total)
+                .setMean(total == 0 ? 0 : sum.get() / total)
+                .setP50(getValueAtPercentile(50))
+                .setP90(getValueAtPercentile(90))
+                .setP99(getValueAtPercentile(99))
+                .setMax(max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,11 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.NodeModel;
+
+/**
+ * Receives nodes one at a time, as they are read, so listing a pool does not hold all of its nodes in memory.
+ */
+public interface NodeModelHandler {
+
+    void handle(NodeModel nodeModel);
+}
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -20,6 +21,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * User: eliranm
@@ -34,10 +36,39 @@ public class NodesDao {
     public static final String COL_NODE_STATUS = "node_status";
     public static final String COL_MACHINE_ID = "machine_id";
     public static final String COL_MACHINE_CREDENTIALS = "machine_credentials";
+    public static final String COL_CLAIM_TOKEN = "claim_token";
     public static final String COL_ALIAS_COUNT = "count";
 
+    // the claim token is internal to claiming a node, so it is not read
+    private static final String COLUMNS_WITHOUT_CREDENTIALS = COL_NODE_ID + "," + COL_POOL_ID + "," + COL_NODE_STATUS + "," + COL_MACHINE_ID;
+    private static final String COLUMNS = COLUMNS_WITHOUT_CREDENTIALS + "," + COL_MACHINE_CREDENTIALS;
+    static final String SQL_INSERT = "insert into " + TABLE_NAME + " (" + COL_POOL_ID + "," + COL_NODE_STATUS + "," + COL_MACHINE_ID + "," + COL_MACHINE_CREDENTIALS + ") values (?, ?, ?, ?)";
+    static final String SQL_SELECT = "select " + COLUMNS + " from " + TABLE_NAME;
+    static final String SQL_SELECT_BY_ID = SQL_SELECT + " where " + COL_NODE_ID + " = ?";
+    static final String SQL_SELECT_OF_POOL = SQL_SELECT + " where " + COL_POOL_ID + " = ?";
+    static final String SQL_SELECT_PAGE_OF_POOL = SQL_SELECT + " where " + COL_POOL_ID + " = ? and " + COL_NODE_ID + " > ? order by " + COL_NODE_ID + " limit ?";
+    static final String SQL_SELECT_PAGE_OF_POOL_WITHOUT_CREDENTIALS = "select " + COLUMNS_WITHOUT_CREDENTIALS + " from " + TABLE_NAME + " where " + COL_POOL_ID + " = ? and " + COL_NODE_ID + " > ? order by " + COL_NODE_ID + " limit ?";
+    static final String SQL_SELECT_OF_STATUS = SQL_SELECT + " where " + COL_NODE_STATUS + " = ? order by " + COL_NODE_ID;
+    static final String SQL_SELECT_BY_CLAIM_TOKEN = SQL_SELECT + " where " + COL_CLAIM_TOKEN + " = ?";
+    static final String SQL_COUNT_PER_STATUS = "select count(*) as '" + COL_ALIAS_COUNT + "', " + COL_POOL_ID + "," + COL_NODE_STATUS + " from " + TABLE_NAME + " group by " + COL_POOL_ID + " , " + COL_NODE_STATUS;
+    static final String SQL_COUNT_PER_STATUS_OF_POOL = "select count(*) as '" + COL_ALIAS_COUNT + "', " + COL_POOL_ID + "," + COL_NODE_STATUS + " from " + TABLE_NAME + " where " + COL_POOL_ID + " = ? group by " + COL_POOL_ID + " , " + COL_NODE_STATUS;
+    static final String SQL_UPDATE = "update " + TABLE_NAME + " set " + COL_POOL_ID + " = ?," + COL_NODE_STATUS + " = ?," + COL_MACHINE_ID + " = ?," + COL_MACHINE_CREDENTIALS + " = ? where " + COL_NODE_ID + " = ?";
+    static final String SQL_TRANSITION = "update " + TABLE_NAME + " set " + COL_NODE_STATUS + " = ? where " + COL_NODE_ID + " = ? and " + COL_NODE_STATUS + " = ?";
+    static final String SQL_CLAIM_OF_POOL = "update " + TABLE_NAME + " set " + COL_NODE_STATUS + " = ?, " + COL_CLAIM_TOKEN + " = ? where " + COL_POOL_ID + " = ? and " + COL_NODE_STATUS + " = ? order by " + COL_NODE_ID + " limit 1";
+    static final String SQL_CLAIM_BY_ID = "update " + TABLE_NAME + " set " + COL_NODE_STATUS + " = ?, " + COL_CLAIM_TOKEN + " = ? where " + COL_NODE_ID + " = ? and " + COL_NODE_STATUS + " = ?";
+    static final String SQL_DELETE = "delete from " + TABLE_NAME + " where " + COL_NODE_ID + " = ?";
+
+    public static final RowMapper<NodeModel> NODE_MODEL_ROW_MAPPER = new NodeModelRowMapper(true);
+
+    public static final RowMapper<NodeModel> NODE_MODEL_WITHOUT_CREDENTIALS_ROW_MAPPER = new NodeModelRowMapper(false);
+
+    public static final RowMapper<PoolStatusCount> POOL_STATUS_COUNT_ROW_MAPPER = new PoolStatusCountRowMapper();
+
     private JdbcTemplate jdbcTemplate;
 
+    // nodes read per query when passing all of the pool's nodes to a handler
+    private int handlerPageSize = 500;
+
     private static Logger logger = LoggerFactory.getLogger(NodesDao.class);
 
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
@@ -45,6 +76,10 @@ public class NodesDao {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    public void setHandlerPageSize(int handlerPageSize) {
+        this.handlerPageSize = handlerPageSize;
+    }
+
 
     public boolean create(final NodeModel nodeModel) {
 
@@ -56,7 +91,7 @@ public class NodesDao {
                     @Override
                     public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
                         PreparedStatement ps = con.prepareStatement(
-                                "insert into " + TABLE_NAME + " (" + COL_POOL_ID + "," + COL_NODE_STATUS + "," + COL_MACHINE_ID + "," + COL_MACHINE_CREDENTIALS + ") values (?, ?, ?, ?)",
+                                SQL_INSERT,
                                 Statement.RETURN_GENERATED_KEYS // specify to populate the generated key holder
                         );
                         ps.setString(1, nodeModel.poolId);
@@ -75,41 +110,165 @@ public class NodesDao {
         return affected > 0;
     }
 
+    /**
+     * Inserts all nodes in a single JDBC batch, and updates them with their generated ids.
+     *
+     * @return The number of nodes inserted.
+     */
+    public int createAll(final List<NodeModel> nodeModels) {
+        if (nodeModels.isEmpty()) {
+            return 0;
+        }
+
+        return jdbcTemplate.execute(
+                new PreparedStatementCreator() {
+                    @Override
+                    public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                        return con.prepareStatement(
+                                SQL_INSERT,
+                                Statement.RETURN_GENERATED_KEYS
+                        );
+                    }
+                },
+                new PreparedStatementCallback<Integer>() {
+                    @Override
+                    public Integer doInPreparedStatement(PreparedStatement ps) throws SQLException {
+                        for (NodeModel nodeModel : nodeModels) {
+                            ps.setString(1, nodeModel.poolId);
+                            ps.setString(2, nodeModel.nodeStatus.name());
+                            ps.setString(3, nodeModel.machineId);
+                            ps.setString(4, nodeModel.machineCredentials);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+
+                        // keep data integrity - generated keys are returned in insertion order
+                        int inserted = 0;
+                        ResultSet keys = ps.getGeneratedKeys();
+                        try {
+                            while (keys.next() && inserted < nodeModels.size()) {
+                                nodeModels.get(inserted++).id = keys.getLong(1);
+                            }
+                        } finally {
+                            keys.close();
+                        }
+                        return inserted;
+                    }
+                }
+        );
+    }
+
     public List<PoolStatusCount> getPoolStatusCounts() {
-        return jdbcTemplate.query("select count(*) as '" + COL_ALIAS_COUNT + "', " + COL_POOL_ID + "," + COL_NODE_STATUS + " from " + TABLE_NAME + " group by " + COL_POOL_ID + " , " + COL_NODE_STATUS,
-                new PoolStatusCountRowMapper());
+        return jdbcTemplate.query(SQL_COUNT_PER_STATUS, POOL_STATUS_COUNT_ROW_MAPPER);
     }
 
     public List<PoolStatusCount> getPoolStatusCountsOfPool(String poolId) {
-        return jdbcTemplate.query("select count(*) as '" + COL_ALIAS_COUNT + "', " + COL_POOL_ID + "," + COL_NODE_STATUS + " from " + TABLE_NAME + " where " + COL_POOL_ID + " = ? group by " + COL_POOL_ID + " , " + COL_NODE_STATUS,
-                new Object[]{poolId},
-                new PoolStatusCountRowMapper());
+        return jdbcTemplate.query(SQL_COUNT_PER_STATUS_OF_POOL, new Object[]{poolId}, POOL_STATUS_COUNT_ROW_MAPPER);
     }
 
     public List<NodeModel> readAllOfPool(String poolId) {
-        return jdbcTemplate.query("select * from " + TABLE_NAME + " where " + COL_POOL_ID + " = ?",
-                new Object[]{poolId},
-                new BeanPropertyRowMapper<NodeModel>(NodeModel.class));
+        return jdbcTemplate.query(SQL_SELECT_OF_POOL, new Object[]{poolId}, NODE_MODEL_ROW_MAPPER);
+    }
+
+    /**
+     * Reads a page of the pool's nodes, by ascending id. The next page starts after the last id of this page.
+     *
+     * @param afterId Only nodes with a greater id are read, {@code 0} for the first page.
+     * @param withCredentials If {@code false}, the machine credentials are not read.
+     */
+    public List<NodeModel> readAllOfPool(String poolId, long afterId, int limit, boolean withCredentials) {
+        return jdbcTemplate.query(withCredentials ? SQL_SELECT_PAGE_OF_POOL : SQL_SELECT_PAGE_OF_POOL_WITHOUT_CREDENTIALS,
+                new Object[]{poolId, afterId, limit},
+                withCredentials ? NODE_MODEL_ROW_MAPPER : NODE_MODEL_WITHOUT_CREDENTIALS_ROW_MAPPER);
+    }
+
+    /**
+     * Passes the pool's nodes to the handler by ascending id. Nodes are read a page at a time, see
+     * {@link #readAllOfPool(String, long, int, boolean)}, so at most a page is held in memory whatever the size of
+     * the pool, and no connection is held while the handler runs, e.g. while it writes to a slow client.
+     * <p/>
+     * Pages are read in separate queries, so nodes created or deleted meanwhile may or may not be passed.
+     *
+     * @param withCredentials If {@code false}, the machine credentials are not read.
+     */
+    public void readAllOfPool(String poolId, boolean withCredentials, NodeModelHandler handler) {
+        long afterId = 0;
+        List<NodeModel> page;
+        do {
+            page = readAllOfPool(poolId, afterId, handlerPageSize, withCredentials);
+            for (NodeModel nodeModel : page) {
+                handler.handle(nodeModel);
+                afterId = nodeModel.id;
+            }
+        } while (page.size() == handlerPageSize);
+    }
+
+    public List<NodeModel> readAllOfStatus(NodeStatus nodeStatus) {
+        return jdbcTemplate.query(SQL_SELECT_OF_STATUS, new Object[]{nodeStatus.name()}, NODE_MODEL_ROW_MAPPER);
     }
 
     public NodeModel read(long nodeId) {
         try {
-            return jdbcTemplate.queryForObject("select * from " + TABLE_NAME + " where " + COL_NODE_ID + " = ?",
-                    new Object[]{nodeId},
-                    new BeanPropertyRowMapper<NodeModel>(NodeModel.class));
+            return jdbcTemplate.queryForObject(SQL_SELECT_BY_ID, new Object[]{nodeId}, NODE_MODEL_ROW_MAPPER);
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
     }
 
     public int update(NodeModel nodeModel) {
-        return jdbcTemplate.update(
-                "update " + TABLE_NAME + " set " + COL_POOL_ID + " = ?," + COL_NODE_STATUS + " = ?," + COL_MACHINE_ID + " = ?," + COL_MACHINE_CREDENTIALS + " = ? where " + COL_NODE_ID + " = ?",
+        return jdbcTemplate.update(SQL_UPDATE,
                 nodeModel.poolId, nodeModel.nodeStatus.name(), nodeModel.machineId, nodeModel.machineCredentials, nodeModel.id);
     }
 
+    /**
+     * Changes the status of a node, only if it is still in the expected status. Unlike {@link #update(NodeModel)},
+     * this needs no prior read, and a concurrent change of the node's status is never overwritten.
+     *
+     * @return {@code true} if the node was moved to the new status by this call, or {@code false} if the node was
+     * deleted or is no longer in the expected status.
+     * @throws IllegalArgumentException if the transition is not allowed by {@link NodeStatus#canTransitionTo(NodeStatus)}.
+     */
+    public boolean transition(long nodeId, NodeStatus from, NodeStatus to) {
+        if (!from.canTransitionTo(to)) {
+            throw new IllegalArgumentException(String.format("node status can not change from [%s] to [%s]", from, to));
+        }
+        int affected = jdbcTemplate.update(SQL_TRANSITION, to.name(), nodeId, from.name());
+        if (affected == 0) {
+            logger.info("node [{}] is no longer [{}], not changing its status to [{}]", new Object[]{nodeId, from, to});
+            return false;
+        }
+        return true;
+    }
+
     public int delete(long nodeId) {
-        return jdbcTemplate.update("delete from " + TABLE_NAME + " where " + COL_NODE_ID + " = ?", nodeId);
+        return jdbcTemplate.update(SQL_DELETE, nodeId);
+    }
+
+    /**
+     * Maps the columns of {@link #COLUMNS}, or of {@link #COLUMNS_WITHOUT_CREDENTIALS}. Stateless, so a single
+     * instance of each is shared by all queries.
+     */
+    public static class NodeModelRowMapper implements RowMapper<NodeModel> {
+
+        private final boolean withCredentials;
+
+        public NodeModelRowMapper(boolean withCredentials) {
+            this.withCredentials = withCredentials;
+        }
+
+        @Override
+        public NodeModel mapRow(ResultSet rs, int rowNum) throws SQLException {
+            NodeModel nodeModel = new NodeModel();
+            nodeModel.id = rs.getLong(COL_NODE_ID);
+            nodeModel.poolId = rs.getString(COL_POOL_ID);
+            String nodeStatus = rs.getString(COL_NODE_STATUS);
+            nodeModel.nodeStatus = nodeStatus == null ? null : NodeStatus.valueOf(nodeStatus);
+            nodeModel.machineId = rs.getString(COL_MACHINE_ID);
+            if (withCredentials) {
+                nodeModel.machineCredentials = rs.getString(COL_MACHINE_CREDENTIALS);
+            }
+            return nodeModel;
+        }
     }
 
     /**
@@ -128,16 +287,36 @@ public class NodesDao {
         }
     }
 
+    /**
+     * Atomically claims one of the pool's bootstrapped nodes, by marking it as occupied with a unique claim token
+     * in a single statement, and then reading it back by that token. Both statements are served by the
+     * (pool_id, node_status) and claim_token indexes (see sql/4.sql), so the cost does not grow with the pool.
+     *
+     * @return The occupied node, or {@code null} if the pool has no bootstrapped nodes.
+     */
     public NodeModel occupyNode(PoolSettings poolSettings) {
-        List<NodeModel> nodeModels = jdbcTemplate.query("select * from " + TABLE_NAME + " where  " + COL_NODE_STATUS + " = ? ",
-                new Object[]{NodeStatus.BOOTSTRAPPED.name()},
-                new BeanPropertyRowMapper<NodeModel>(NodeModel.class));
-        for (NodeModel nodeModel : nodeModels) {
-            int updated = jdbcTemplate.update("update " + TABLE_NAME + " set " + COL_NODE_STATUS + " = ? where " + COL_NODE_ID + " = ? and " + COL_NODE_STATUS + " =  ? ", NodeStatus.OCCUPIED.name(), nodeModel.id, NodeStatus.BOOTSTRAPPED.name());
-            if (updated == 1) {
-                return nodeModel;
-            }
+        String claimToken = UUID.randomUUID().toString();
+        int claimed = jdbcTemplate.update(SQL_CLAIM_OF_POOL,
+                NodeStatus.OCCUPIED.name(), claimToken, poolSettings.getUuid(), NodeStatus.BOOTSTRAPPED.name());
+        if (claimed == 0) {
+            logger.info("pool [{}] has no bootstrapped nodes to occupy", poolSettings.getUuid());
+            return null;
+        }
+        return jdbcTemplate.queryForObject(SQL_SELECT_BY_CLAIM_TOKEN, new Object[]{claimToken}, NODE_MODEL_ROW_MAPPER);
+    }
+
+    /**
+     * Claims a specific node, if it is still bootstrapped.
+     *
+     * @return {@code true} if the node was occupied by this call, in which case the model is updated.
+     */
+    public boolean occupyNode(NodeModel nodeModel) {
+        int claimed = jdbcTemplate.update(SQL_CLAIM_BY_ID,
+                NodeStatus.OCCUPIED.name(), UUID.randomUUID().toString(), nodeModel.id, NodeStatus.BOOTSTRAPPED.name());
+        if (claimed == 0) {
+            return false;
         }
-        return null;
+        nodeModel.setNodeStatus(NodeStatus.OCCUPIED);
+        return true;
     }
 }
@@ -19,6 +19,24 @@ public interface PoolManagerApi {
 
     List<NodeModel> listNodes(PoolSettings poolSettings);
 
+    /**
+     * Lists a page of the pool's nodes, by ascending id.
+     *
+     * @param afterId only nodes with a greater id are listed. use {@code 0} for the first page, and the last id
+     *                of a page for the page that follows it.
+     * @param limit the maximum number of nodes to list, between 1 and 1000. other values are clamped to that range
+     * @param withCredentials if {@code false}, the nodes' machine credentials are left out
+     */
+    List<NodeModel> listNodes(PoolSettings poolSettings, long afterId, int limit, boolean withCredentials);
+
+    /**
+     * Passes all of the pool's nodes to the handler by ascending id. They are read a page at a time, so they are
+     * never all held in memory, and no database connection is held while the handler runs.
+     *
+     * @param withCredentials if {@code false}, the nodes' machine credentials are left out
+     */
+    void listNodes(PoolSettings poolSettings, boolean withCredentials, NodeModelHandler handler);
+
     NodeModel getNode(long nodeId);
 
     /**
@@ -44,8 +62,25 @@ public interface PoolManagerApi {
      */
     void bootstrapNode(PoolSettings poolSettings, long nodeId, TaskCallback<NodeModel> taskCallback);
 
+    /**
+     * Creates nodes, waits for their machines to run and bootstraps them.
+     *
+     * @param poolSettings
+     * @param taskCallback (optional) called with the nodes that were bootstrapped successfully
+     */
+    void provisionNode(PoolSettings poolSettings, TaskCallback<Collection<NodeModel>> taskCallback);
+
     List<ErrorModel> listTaskErrors(PoolSettings poolSettings);
 
+    /**
+     * Lists a page of the pool's errors, by ascending id.
+     *
+     * @param afterId only errors with a greater id are listed. use {@code 0} for the first page, and the last id
+     *                of a page for the page that follows it.
+     * @param limit the maximum number of errors to list, between 1 and 1000. other values are clamped to that range
+     */
+    List<ErrorModel> listTaskErrors(PoolSettings poolSettings, long afterId, int limit);
+
     ErrorModel getTaskError(long errorId);
 
     void removeTaskError(long errorId);
@@ -56,6 +91,16 @@ public interface PoolManagerApi {
 
     NodeModel occupy( PoolSettings poolSettings );
 
+    /**
+     * @return The pool's demand model and the number of nodes it should keep ready.
+     */
+    DemandForecast getDemandForecast(PoolSettings poolSettings);
+
+    /**
+     * @return Timing and outcome metrics of the tasks executed since startup, per task name, provider and pool.
+     */
+    List<TaskMetricsSnapshot> getTaskMetrics();
+
     List<NodeMappings> listCloudNodes (PoolSettings poolSettings);
 
 }
@@ -2,8 +2,10 @@ package cloudify.widget.pool.manager;
 
 import cloudify.widget.pool.manager.dto.*;
 import cloudify.widget.pool.manager.tasks.*;
+import com.google.common.util.concurrent.Futures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
 
 import java.util.Collection;
 import java.util.List;
@@ -17,6 +19,9 @@ public class PoolManagerApiImpl implements PoolManagerApi {
 
     private static Logger logger = LoggerFactory.getLogger(PoolManagerApiImpl.class);
 
+    // bounds the page size of listings, whatever the caller asks for
+    static final int MAX_PAGE_SIZE = 1000;
+
     private NodesDao nodesDao;
 
     private ErrorsDao errorsDao;
@@ -29,13 +34,22 @@ public class PoolManagerApiImpl implements PoolManagerApi {
 
     private TaskExecutor taskExecutor;
 
+    private ProvisioningPipeline provisioningPipeline;
+
+    private DemandForecaster demandForecaster;
+
+    private TaskMetrics taskMetrics;
+
+    private ReadyNodes readyNodes;
+
     private String bootstrapScriptResourcePath;
 
-    private Task createMachineTask;
+    // tasks are stateful, every submission takes a new one
+    private ObjectFactory<Task> createMachineTaskFactory;
 
-    private Task deleteMachineTask;
+    private ObjectFactory<Task> deleteMachineTaskFactory;
 
-    private Task bootstrapMachineTask;
+    private ObjectFactory<Task> bootstrapMachineTaskFactory;
 
 //    private
 
@@ -58,6 +72,22 @@ public class PoolManagerApiImpl implements PoolManagerApi {
         return nodesDao.readAllOfPool(poolSettings.getUuid());
     }
 
+    @Override
+    public List<NodeModel> listNodes(PoolSettings poolSettings, long afterId, int limit, boolean withCredentials) {
+        if (poolSettings == null) return null;
+        return nodesDao.readAllOfPool(poolSettings.getUuid(), afterId, pageSize(limit), withCredentials);
+    }
+
+    @Override
+    public void listNodes(PoolSettings poolSettings, boolean withCredentials, NodeModelHandler handler) {
+        if (poolSettings == null) return;
+        nodesDao.readAllOfPool(poolSettings.getUuid(), withCredentials, handler);
+    }
+
+    private static int pageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
     @Override
     public NodeModel getNode(long nodeId) {
         return nodesDao.read(nodeId);
@@ -66,7 +96,7 @@ public class PoolManagerApiImpl implements PoolManagerApi {
     @Override
     public void createNode(PoolSettings poolSettings, TaskCallback<Collection<NodeModel>> taskCallback) {
         if (poolSettings == null) return;
-        taskExecutor.execute(createMachineTask, null, poolSettings, taskCallback);
+        taskExecutor.execute(createMachineTaskFactory.getObject(), null, poolSettings, taskCallback);
     }
 
     @Override
@@ -74,7 +104,7 @@ public class PoolManagerApiImpl implements PoolManagerApi {
         final NodeModel node = _getNodeModel(nodeId);
         if (node == null) return;
         if (poolSettings == null) return;
-        taskExecutor.execute(deleteMachineTask, new DeleteMachineConfig() {
+        taskExecutor.execute(deleteMachineTaskFactory.getObject(), new DeleteMachineConfig() {
             @Override
             public NodeModel getNodeModel() {
                 return node;
@@ -85,7 +115,7 @@ public class PoolManagerApiImpl implements PoolManagerApi {
     @Override
     public void bootstrapNode(PoolSettings poolSettings, long nodeId, TaskCallback<NodeModel> taskCallback) {
         final NodeModel node = _getNodeModel(nodeId);
-        taskExecutor.execute(bootstrapMachineTask, new BootstrapMachineConfig() {
+        taskExecutor.execute(bootstrapMachineTaskFactory.getObject(), new BootstrapMachineConfig() {
             @Override
             public String getBootstrapScriptResourcePath() {
                 return bootstrapScriptResourcePath;
@@ -97,12 +127,27 @@ public class PoolManagerApiImpl implements PoolManagerApi {
         }, poolSettings, taskCallback);
     }
 
+    @Override
+    public void provisionNode(PoolSettings poolSettings, TaskCallback<Collection<NodeModel>> taskCallback) {
+        if (poolSettings == null) return;
+        if (taskCallback == null) {
+            taskCallback = new NoopTaskCallback();
+        }
+        Futures.addCallback(provisioningPipeline.provision(poolSettings), taskCallback);
+    }
+
     @Override
     public List<ErrorModel> listTaskErrors(PoolSettings poolSettings) {
         if (poolSettings == null) return null;
         return errorsDao.readAllOfPool(poolSettings.getUuid());
     }
 
+    @Override
+    public List<ErrorModel> listTaskErrors(PoolSettings poolSettings, long afterId, int limit) {
+        if (poolSettings == null) return null;
+        return errorsDao.readAllOfPool(poolSettings.getUuid(), afterId, pageSize(limit));
+    }
+
     @Override
     public ErrorModel getTaskError(long errorId) {
         return errorsDao.read(errorId);
@@ -120,7 +165,10 @@ public class PoolManagerApiImpl implements PoolManagerApi {
 
     @Override
     public void removeRunningTask(long taskId) {
-        tasksDao.delete(taskId);
+        // a task that is still in flight is stopped, and removes its own journal entry when done
+        if (!taskExecutor.cancel(taskId)) {
+            tasksDao.delete(taskId);
+        }
     }
 
     private NodeModel _getNodeModel(long nodeId) {
@@ -133,7 +181,38 @@ public class PoolManagerApiImpl implements PoolManagerApi {
 
     @Override
     public NodeModel occupy(PoolSettings poolSettings) {
-        return nodesDao.occupyNode( poolSettings );
+        demandForecaster.recordOccupy(poolSettings.getUuid());
+        statusManager.beginChange();
+        try {
+            NodeModel nodeModel;
+            while ((nodeModel = readyNodes.poll(poolSettings.getUuid())) != null) {
+                if (nodesDao.occupyNode(nodeModel)) {
+                    statusManager.nodeStatusChanged(nodeModel.poolId, NodeStatus.BOOTSTRAPPED, NodeStatus.OCCUPIED);
+                    return nodeModel;
+                }
+                // deleted or occupied since it was queued
+                logger.debug("node [{}] is no longer bootstrapped, skipping", nodeModel.id);
+            }
+            // the queue may miss nodes, e.g. nodes bootstrapped by another instance
+            nodeModel = nodesDao.occupyNode( poolSettings );
+            if (nodeModel != null) {
+                statusManager.nodeStatusChanged(nodeModel.poolId, NodeStatus.BOOTSTRAPPED, NodeStatus.OCCUPIED);
+            }
+            return nodeModel;
+        } finally {
+            statusManager.endChange();
+        }
+    }
+
+    @Override
+    public DemandForecast getDemandForecast(PoolSettings poolSettings) {
+        if (poolSettings == null) return null;
+        return demandForecaster.getForecast(poolSettings);
+    }
+
+    @Override
+    public List<TaskMetricsSnapshot> getTaskMetrics() {
+        return taskMetrics.snapshot();
     }
 
     @Override
@@ -157,16 +236,16 @@ public class PoolManagerApiImpl implements PoolManagerApi {
         this.nodeMappingsDao = nodeMappingsDao;
     }
 
-    public void setCreateMachineTask(Task createMachineTask) {
-        this.createMachineTask = createMachineTask;
+    public void setCreateMachineTaskFactory(ObjectFactory<Task> createMachineTaskFactory) {
+        this.createMachineTaskFactory = createMachineTaskFactory;
     }
 
-    public void setDeleteMachineTask(Task deleteMachineTask) {
-        this.deleteMachineTask = deleteMachineTask;
+    public void setDeleteMachineTaskFactory(ObjectFactory<Task> deleteMachineTaskFactory) {
+        this.deleteMachineTaskFactory = deleteMachineTaskFactory;
     }
 
-    public void setBootstrapMachineTask(Task bootstrapMachineTask) {
-        this.bootstrapMachineTask = bootstrapMachineTask;
+    public void setBootstrapMachineTaskFactory(ObjectFactory<Task> bootstrapMachineTaskFactory) {
+        this.bootstrapMachineTaskFactory = bootstrapMachineTaskFactory;
     }
 
     public void setStatusManager(StatusManager statusManager) {
@@ -177,6 +256,22 @@ public class PoolManagerApiImpl implements PoolManagerApi {
         this.taskExecutor = taskExecutor;
     }
 
+    public void setProvisioningPipeline(ProvisioningPipeline provisioningPipeline) {
+        this.provisioningPipeline = provisioningPipeline;
+    }
+
+    public void setDemandForecaster(DemandForecaster demandForecaster) {
+        this.demandForecaster = demandForecaster;
+    }
+
+    public void setTaskMetrics(TaskMetrics taskMetrics) {
+        this.taskMetrics = taskMetrics;
+    }
+
+    public void setReadyNodes(ReadyNodes readyNodes) {
+        this.readyNodes = readyNodes;
+    }
+
     public void setBootstrapScriptResourcePath(String bootstrapScriptResourcePath) {
         this.bootstrapScriptResourcePath = bootstrapScriptResourcePath;
     }
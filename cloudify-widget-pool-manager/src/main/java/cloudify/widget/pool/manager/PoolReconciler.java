@@ -0,0 +1,314 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.*;
+import cloudify.widget.pool.manager.tasks.DeleteMachineConfig;
+import cloudify.widget.pool.manager.tasks.ProvisioningPipeline;
+import cloudify.widget.pool.manager.tasks.Task;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically converges every pool towards its settings.
+ * <p/>
+ * On each cycle, the status of all pools is compared against their settings:
+ * <ul>
+ * <li>pools below their target size are filled, with at most one fill in flight per pool. The target is
+ * {@code minNodes}, raised by the {@link DemandForecaster} if one is set.</li>
+ * <li>{@code CREATED} nodes which are not being provisioned are bootstrapped, unless a fill is in flight.</li>
+ * <li>pools above {@code maxNodes} are trimmed, deleting {@code CREATED} nodes before {@code BOOTSTRAPPED} ones.
+ * Nodes in any other status are never deleted. Each node is claimed by moving it to {@code DELETING} before its
+ * delete is submitted, so it can not be occupied meanwhile.</li>
+ * </ul>
+ * Nodes which are {@code DELETING} are not counted towards the pool's size, so a delete that takes longer than a
+ * cycle is not made up for by deleting more nodes. The number of bootstraps and deletes submitted per pool in a
+ * single cycle is limited.
+ * <p/>
+ * Pools are listed by a {@link PoolSettingsProvider}. If none is registered, the reconciler does nothing.
+ */
+public class PoolReconciler {
+
+    private static Logger logger = LoggerFactory.getLogger(PoolReconciler.class);
+
+    @Autowired(required = false)
+    private PoolSettingsProvider poolSettingsProvider;
+
+    private StatusManager statusManager;
+
+    private NodesDao nodesDao;
+
+    private ReadyNodes readyNodes;
+
+    private TaskExecutor taskExecutor;
+
+    private ProvisioningPipeline provisioningPipeline;
+
+    // optional, raises the fill target ahead of expected demand
+    private DemandForecaster demandForecaster;
+
+    private ObjectFactory<Task> deleteMachineTaskFactory;
+
+    private ScheduledExecutorService scheduler;
+
+    private boolean enabled = true;
+
+    private long initialDelayMillis = 60 * 1000;
+
+    private long intervalMillis = 60 * 1000;
+
+    private int maxBootstrapsPerCycle = 5;
+
+    private int maxDeletesPerCycle = 5;
+
+    // ids of pools with a fill in flight
+    private final Set<String> fillingPools = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // ids of nodes with a delete in flight
+    private final Set<Long> deletingNodeIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+
+    public void init() {
+        if (!enabled) {
+            logger.info("pool reconciler is disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Exception e) {
+                    // keep the schedule alive
+                    logger.error("failed to reconcile pools", e);
+                }
+            }
+        }, initialDelayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs a single reconciliation cycle over all pools.
+     */
+    public void reconcile() {
+        if (poolSettingsProvider == null) {
+            logger.debug("no pool settings provider found, nothing to reconcile");
+            return;
+        }
+
+        Map<String, PoolStatus> poolStatuses = new HashMap<String, PoolStatus>();
+        for (PoolStatus poolStatus : statusManager.listPoolStatuses()) {
+            poolStatuses.put(poolStatus.getPoolId(), poolStatus);
+        }
+
+        for (PoolSettings poolSettings : poolSettingsProvider.listPoolSettings()) {
+            if (poolSettings == null) {
+                continue;
+            }
+            try {
+                reconcile(poolSettings, poolStatuses.get(poolSettings.getUuid()));
+            } catch (Exception e) {
+                logger.error("failed to reconcile pool [" + poolSettings.getUuid() + "]", e);
+            }
+        }
+    }
+
+    private void reconcile(final PoolSettings poolSettings, PoolStatus poolStatus) {
+        final String poolId = poolSettings.getUuid();
+        // nodes being deleted are already on their way out
+        int currentSize = (poolStatus == null ? 0 : poolStatus.getCurrentSize()) - getCount(poolStatus, NodeStatus.DELETING);
+        int createdCount = getCount(poolStatus, NodeStatus.CREATED);
+
+        int targetSize = getTargetSize(poolSettings, poolStatus);
+        if (currentSize < targetSize && fillingPools.add(poolId)) {
+            logger.info("pool [{}] has [{}] nodes, below its target of [{}], filling", new Object[]{poolId, currentSize, targetSize});
+            ListenableFuture<Collection<NodeModel>> filled = provisioningPipeline.fill(poolSettings, targetSize);
+            filled.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    fillingPools.remove(poolId);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        boolean oversized = currentSize > poolSettings.getMaxNodes();
+        if (createdCount == 0 && !oversized) {
+            return;
+        }
+
+        List<NodeModel> nodeModels = nodesDao.readAllOfPool(poolId);
+
+        if (oversized) {
+            trim(poolSettings, nodeModels, currentSize - poolSettings.getMaxNodes());
+        }
+
+        if (fillingPools.contains(poolId)) {
+            // nodes created by the fill are handed to the pipeline as soon as they are stored
+            return;
+        }
+
+        int bootstraps = 0;
+        for (NodeModel nodeModel : nodeModels) {
+            if (bootstraps >= maxBootstrapsPerCycle) {
+                break;
+            }
+            if (nodeModel.nodeStatus == NodeStatus.CREATED && !isBusy(nodeModel)) {
+                logger.info("bootstrapping stray node [{}] of pool [{}]", nodeModel.id, poolId);
+                provisioningPipeline.provisionCreated(poolSettings, nodeModel);
+                bootstraps++;
+            }
+        }
+    }
+
+    /**
+     * @return The occupied nodes plus the nodes to keep ready, within the pool's min and max nodes. Without a
+     * forecast, the pool's minimum size.
+     */
+    private int getTargetSize(PoolSettings poolSettings, PoolStatus poolStatus) {
+        int targetSize = poolSettings.getMinNodes();
+        if (demandForecaster != null) {
+            DemandForecast forecast = demandForecaster.getForecast(poolSettings);
+            targetSize = getCount(poolStatus, NodeStatus.OCCUPIED) + forecast.getTargetReadyNodes();
+        }
+        return Math.max(poolSettings.getMinNodes(), Math.min(poolSettings.getMaxNodes(), targetSize));
+    }
+
+    private void trim(PoolSettings poolSettings, List<NodeModel> nodeModels, int surplus) {
+        List<NodeModel> candidates = new ArrayList<NodeModel>();
+        for (NodeStatus nodeStatus : new NodeStatus[]{NodeStatus.CREATED, NodeStatus.BOOTSTRAPPED}) {
+            for (NodeModel nodeModel : nodeModels) {
+                if (nodeModel.nodeStatus == nodeStatus && !isBusy(nodeModel)) {
+                    candidates.add(nodeModel);
+                }
+            }
+        }
+
+        int deletes = Math.min(surplus, maxDeletesPerCycle);
+        logger.info("pool [{}] is [{}] nodes over its maximum, deleting up to [{}]", new Object[]{poolSettings.getUuid(), surplus, deletes});
+        for (final NodeModel nodeModel : candidates) {
+            if (deletes == 0) {
+                break;
+            }
+            if (!claim(nodeModel)) {
+                // occupied, bootstrapped or deleted since it was read
+                continue;
+            }
+            deletes--;
+            deletingNodeIds.add(nodeModel.id);
+            // keeps the status of nodes being deleted from being counted as stray
+            nodeModels.remove(nodeModel);
+            ListenableFuture<?> deleted = taskExecutor.execute(deleteMachineTaskFactory.getObject(), new DeleteMachineConfig() {
+                @Override
+                public NodeModel getNodeModel() {
+                    return nodeModel;
+                }
+            }, poolSettings);
+            deleted.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    deletingNodeIds.remove(nodeModel.id);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+    }
+
+    /**
+     * Moves the node to {@code DELETING}, so it is no longer bootstrapped or occupied.
+     *
+     * @return {@code true} if the node was still in the status it was read with.
+     */
+    private boolean claim(NodeModel nodeModel) {
+        NodeStatus nodeStatus = nodeModel.nodeStatus;
+        statusManager.beginChange();
+        try {
+            if (!nodesDao.transition(nodeModel.id, nodeStatus, NodeStatus.DELETING)) {
+                return false;
+            }
+            nodeModel.setNodeStatus(NodeStatus.DELETING);
+            statusManager.nodeStatusChanged(nodeModel.poolId, nodeStatus, NodeStatus.DELETING);
+        } finally {
+            statusManager.endChange();
+        }
+        readyNodes.remove(nodeModel);
+        return true;
+    }
+
+    private boolean isBusy(NodeModel nodeModel) {
+        return provisioningPipeline.isInFlight(nodeModel.id) || deletingNodeIds.contains(nodeModel.id);
+    }
+
+    private static int getCount(PoolStatus poolStatus, NodeStatus nodeStatus) {
+        if (poolStatus == null) {
+            return 0;
+        }
+        Integer count = poolStatus.getCountPerNodeStatus().get(nodeStatus);
+        return count == null ? 0 : count;
+    }
+
+
+    public void setPoolSettingsProvider(PoolSettingsProvider poolSettingsProvider) {
+        this.poolSettingsProvider = poolSettingsProvider;
+    }
+
+    public void setStatusManager(StatusManager statusManager) {
+        this.statusManager = statusManager;
+    }
+
+    public void setNodesDao(NodesDao nodesDao) {
+        this.nodesDao = nodesDao;
+    }
+
+    public void setReadyNodes(ReadyNodes readyNodes) {
+        this.readyNodes = readyNodes;
+    }
+
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    public void setProvisioningPipeline(ProvisioningPipeline provisioningPipeline) {
+        this.provisioningPipeline = provisioningPipeline;
+    }
+
+    public void setDemandForecaster(DemandForecaster demandForecaster) {
+        this.demandForecaster = demandForecaster;
+    }
+
+    public void setDeleteMachineTaskFactory(ObjectFactory<Task> deleteMachineTaskFactory) {
+        this.deleteMachineTaskFactory = deleteMachineTaskFactory;
+    }
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setInitialDelayMillis(long initialDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setMaxBootstrapsPerCycle(int maxBootstrapsPerCycle) {
+        this.maxBootstrapsPerCycle = maxBootstrapsPerCycle;
+    }
+
+    public void setMaxDeletesPerCycle(int maxDeletesPerCycle) {
+        this.maxDeletesPerCycle = maxDeletesPerCycle;
+    }
+}
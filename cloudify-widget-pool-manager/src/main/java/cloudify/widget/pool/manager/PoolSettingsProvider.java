@@ -0,0 +1,16 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.PoolSettings;
+
+import java.util.List;
+
+/**
+ * Provides the settings of all the pools the manager is responsible for.
+ * <p/>
+ * Pool settings are owned by the application using the pool manager, which should register an implementation
+ * as a bean in order to enable background pool maintenance.
+ */
+public interface PoolSettingsProvider {
+
+    List<PoolSettings> listPoolSettings();
+}
@@ -0,0 +1,62 @@
+package cloudify.widget.pool.manager;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * A priority work queue for executors, bounded to a given capacity.
+ * <p/>
+ * Elements must be comparable, so tasks should be handed to the executor with {@code execute(QueuedTask)} rather
+ * than {@code submit(..)}, which wraps them with a non-comparable future.
+ *
+ * @see QueuedTask#compareTo(QueuedTask)
+ */
+public class PriorityTaskQueue extends PriorityBlockingQueue<Runnable> {
+
+    private final int capacity;
+
+    public PriorityTaskQueue(int capacity) {
+        super(Math.min(capacity, 11));
+        this.capacity = capacity;
+    }
+
+    // add(..) and put(..) delegate to this method
+    @Override
+    public synchronized boolean offer(Runnable runnable) {
+        return size() < capacity && super.offer(runnable);
+    }
+
+    /**
+     * Removes the element that would run last, i.e. the lowest ranked one, which is the most recently queued of
+     * the lowest priority.
+     *
+     * @return The removed element, or {@code null} if the queue is empty.
+     */
+    public synchronized Runnable pollLast() {
+        while (true) {
+            Runnable last = peekLast();
+            if (last == null || remove(last)) {
+                return last;
+            }
+            // taken by a worker meanwhile
+        }
+    }
+
+    /**
+     * @return The element that would run last, or {@code null} if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public Runnable peekLast() {
+        Runnable last = null;
+        for (Runnable runnable : this) {
+            if (last == null || ((Comparable<Runnable>) runnable).compareTo(last) > 0) {
+                last = runnable;
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+}
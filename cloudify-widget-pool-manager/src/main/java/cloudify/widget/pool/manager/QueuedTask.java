@@ -0,0 +1,198 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.common.Interruptibles;
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.tasks.Task;
+import cloudify.widget.pool.manager.tasks.TaskName;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The unit of work handed to the executors by the {@link TaskExecutor}.
+ * <p/>
+ * Keeps the task's metadata next to its future, so executors and bulkheads can make decisions
+ * (limits, rejections) without unwrapping the decorated task.
+ * <p/>
+ * Queued tasks are ordered by their rank, and then by submission order.
+ * <p/>
+ * A task with a timeout is cancelled and interrupted if it is still running once the timeout elapses.
+ * The timeout is counted from the moment the task starts running, time spent in queues does not count.
+ * Running tasks are interrupted with {@link Interruptibles#interrupt(Thread)}, so a task blocked on an ssh session
+ * is released too.
+ *
+ * @see TaskPriorities
+ * @param <R> The expected task result type.
+ */
+public class QueuedTask<R> implements Runnable, Comparable<QueuedTask<?>> {
+
+    private static Logger logger = LoggerFactory.getLogger(QueuedTask.class);
+
+    private static final AtomicLong sequencer = new AtomicLong();
+
+    private final ListenableFutureTask<R> futureTask;
+
+    private final TaskName taskName;
+
+    private final PoolSettings poolSettings;
+
+    private final long submitTime = System.currentTimeMillis();
+
+    private final long sequence = sequencer.getAndIncrement();
+
+    private final long rank;
+
+    private long timeoutMillis;
+
+    private ScheduledExecutorService timeoutScheduler;
+
+    private volatile boolean timedOut;
+
+    // 0 until the task starts running
+    private volatile long startTime;
+
+    // the thread running the task, guarded by 'this'
+    private Thread runner;
+
+    public QueuedTask(Task<?, R> task, PoolSettings poolSettings) {
+        this(task, poolSettings, null);
+    }
+
+    public QueuedTask(Task<?, R> task, PoolSettings poolSettings, TaskPriorities taskPriorities) {
+        this.futureTask = ListenableFutureTask.create(task);
+        this.taskName = task.getTaskName();
+        this.poolSettings = poolSettings;
+        this.rank = taskPriorities == null ? submitTime : taskPriorities.getRank(taskName, poolSettings, submitTime);
+    }
+
+    /**
+     * Sets a deadline for the task's run.
+     *
+     * @param timeoutMillis    The maximal run time, non positive values mean no timeout.
+     * @param timeoutScheduler The scheduler that enforces the deadline.
+     */
+    public void setTimeout(long timeoutMillis, ScheduledExecutorService timeoutScheduler) {
+        this.timeoutMillis = timeoutMillis;
+        this.timeoutScheduler = timeoutScheduler;
+    }
+
+    @Override
+    public void run() {
+        if (futureTask.isDone()) {
+            // cancelled while queued
+            return;
+        }
+        if (timeoutMillis > 0 && timeoutScheduler != null) {
+            final ScheduledFuture<?> deadline = timeoutScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!futureTask.isDone()) {
+                        logger.warn("task [{}] did not finish within [{}] ms, cancelling", QueuedTask.this, timeoutMillis);
+                        timedOut = true;
+                        cancel(true);
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            futureTask.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    deadline.cancel(false);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+        synchronized (this) {
+            runner = Thread.currentThread();
+        }
+        startTime = System.currentTimeMillis();
+        try {
+            futureTask.run();
+        } finally {
+            synchronized (this) {
+                runner = null;
+            }
+        }
+    }
+
+    /**
+     * Cancels the task without interrupting it. Callbacks registered on the future are notified with a
+     * {@link java.util.concurrent.CancellationException}.
+     */
+    public void cancel() {
+        cancel(false);
+    }
+
+    /**
+     * Cancels the task, interrupting it if it is already running.
+     *
+     * @return {@code false} if the task was already done.
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!futureTask.cancel(false)) {
+            return false;
+        }
+        if (mayInterruptIfRunning) {
+            synchronized (this) {
+                if (runner != null) {
+                    Interruptibles.interrupt(runner);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int compareTo(QueuedTask<?> other) {
+        if (rank != other.rank) {
+            return rank < other.rank ? -1 : 1;
+        }
+        return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+
+    public ListenableFuture<R> getFuture() {
+        return futureTask;
+    }
+
+    public TaskName getTaskName() {
+        return taskName;
+    }
+
+    public PoolSettings getPoolSettings() {
+        return poolSettings;
+    }
+
+    public long getSubmitTime() {
+        return submitTime;
+    }
+
+    public long getRank() {
+        return rank;
+    }
+
+    /**
+     * @return The time the task started running, or 0 if it has not started.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "QueuedTask{" +
+                "taskName=" + taskName +
+                ", poolId='" + (poolSettings == null ? null : poolSettings.getUuid()) + '\'' +
+                ", submitTime=" + submitTime +
+                ", rank=" + rank +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package cloudify.widget.pool.manager;
+
+/**
+ * The rate of api calls a cloud account sustains.
+ *
+ * @see TokenBucket
+ */
+public class RateLimit {
+
+    private double permitsPerSecond = 5;
+
+    private int burst = 10;
+
+    public TokenBucket newTokenBucket() {
+        return new TokenBucket(permitsPerSecond, burst);
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public void setPermitsPerSecond(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+}
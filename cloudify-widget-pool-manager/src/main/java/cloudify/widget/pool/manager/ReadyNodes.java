@@ -0,0 +1,81 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.NodeModel;
+import cloudify.widget.pool.manager.dto.NodeStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per pool queues of bootstrapped nodes, so occupying a node does not need to look for one in the database.
+ * <p/>
+ * The queues are a hint, the database remains the source of truth: a node taken from a queue must still be
+ * claimed with {@link NodesDao#occupyNode(NodeModel)}, which fails if the node was meanwhile deleted or occupied.
+ * The queues are rebuilt from the database on startup, and nodes are added once they are bootstrapped.
+ */
+public class ReadyNodes {
+
+    private static Logger logger = LoggerFactory.getLogger(ReadyNodes.class);
+
+    private final ConcurrentMap<String, Queue<NodeModel>> readyNodesByPool = new ConcurrentHashMap<String, Queue<NodeModel>>();
+
+    private NodesDao nodesDao;
+
+    public void init() {
+        int count = 0;
+        for (NodeModel nodeModel : nodesDao.readAllOfStatus(NodeStatus.BOOTSTRAPPED)) {
+            push(nodeModel);
+            count++;
+        }
+        logger.info("loaded [{}] bootstrapped nodes", count);
+    }
+
+    public void push(NodeModel nodeModel) {
+        getQueue(nodeModel.poolId).offer(nodeModel);
+    }
+
+    /**
+     * @return The pool's oldest bootstrapped node, or {@code null} if there is none.
+     */
+    public NodeModel poll(String poolId) {
+        Queue<NodeModel> queue = readyNodesByPool.get(poolId);
+        return queue == null ? null : queue.poll();
+    }
+
+    /**
+     * Removes a node that is no longer ready, e.g. one that is being deleted.
+     */
+    public void remove(NodeModel nodeModel) {
+        Queue<NodeModel> queue = readyNodesByPool.get(nodeModel.poolId);
+        if (queue == null) {
+            return;
+        }
+        Iterator<NodeModel> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().id == nodeModel.id) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Queue<NodeModel> getQueue(String poolId) {
+        Queue<NodeModel> queue = readyNodesByPool.get(poolId);
+        if (queue == null) {
+            Queue<NodeModel> newQueue = new ConcurrentLinkedQueue<NodeModel>();
+            queue = readyNodesByPool.putIfAbsent(poolId, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    public void setNodesDao(NodesDao nodesDao) {
+        this.nodesDao = nodesDao;
+    }
+}
@@ -0,0 +1,90 @@
+package cloudify.widget.pool.manager;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * What to do with a task once a bounded executor (or a bulkhead's task limit) can no longer accept it.
+ * <p/>
+ * The discarding policies cancel the dropped {@link QueuedTask}, so its callback is notified
+ * instead of waiting forever on a future that will never run.
+ */
+public enum RejectionPolicy {
+
+    /**
+     * Throws a {@link java.util.concurrent.RejectedExecutionException} back to the submitter.
+     */
+    ABORT {
+        @Override
+        public RejectedExecutionHandler newHandler() {
+            return new ThreadPoolExecutor.AbortPolicy();
+        }
+    },
+
+    /**
+     * Runs the task on the submitting thread, slowing the submitter down.
+     */
+    CALLER_RUNS {
+        @Override
+        public RejectedExecutionHandler newHandler() {
+            return new ThreadPoolExecutor.CallerRunsPolicy();
+        }
+    },
+
+    /**
+     * Drops the rejected task.
+     */
+    DISCARD {
+        @Override
+        public RejectedExecutionHandler newHandler() {
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    cancel(r);
+                }
+            };
+        }
+    },
+
+    /**
+     * Drops a queued task to make room for the rejected one. On FIFO queues this is the task at the head of the
+     * queue, which has been waiting the longest. On prioritized queues it is the task that would run last, i.e. the
+     * lowest priority one. If the rejected task would run after it, the rejected task is dropped instead, so
+     * high priority work is never dropped for lower priority work.
+     */
+    DISCARD_OLDEST {
+        @Override
+        public RejectedExecutionHandler newHandler() {
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (executor.isShutdown()) {
+                        cancel(r);
+                        return;
+                    }
+                    if (executor.getQueue() instanceof PriorityTaskQueue) {
+                        PriorityTaskQueue queue = (PriorityTaskQueue) executor.getQueue();
+                        Runnable last = queue.peekLast();
+                        if (last != null && r instanceof QueuedTask && last instanceof QueuedTask
+                                && ((QueuedTask<?>) r).compareTo((QueuedTask<?>) last) > 0) {
+                            cancel(r);
+                            return;
+                        }
+                        cancel(queue.pollLast());
+                    } else {
+                        cancel(executor.getQueue().poll());
+                    }
+                    executor.execute(r);
+                }
+            };
+        }
+    };
+
+    public abstract RejectedExecutionHandler newHandler();
+
+    static void cancel(Runnable r) {
+        if (r instanceof QueuedTask) {
+            ((QueuedTask) r).cancel();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.api.clouds.*;
+import cloudify.widget.pool.manager.dto.ProviderSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+/**
+ * Decorates a {@link CloudServerApi}, passing calls to the cloud through the account's circuit breaker
+ * and rate limiter.
+ * <p/>
+ * Idempotent calls ({@code findByMask}, {@code get}, {@code delete}) are retried on transient errors. Calls that
+ * would do the same work twice ({@code create}, {@code rebuild}) are not. Scripts run over ssh and do not go
+ * through the provider's api, so they are passed through as is.
+ * <p/>
+ * {@link #tryGet(String)} never blocks, for callers that poll on a shared scheduler.
+ *
+ * @see CloudServerApiResilience
+ */
+public class ResilientCloudServerApi implements CloudServerApi {
+
+    private static Logger logger = LoggerFactory.getLogger(ResilientCloudServerApi.class);
+
+    private final ProviderSettings.ProviderName providerName;
+
+    private final CloudServerApi decorated;
+
+    private final CloudServerApiResilience resilience;
+
+    private IConnectDetails connectDetails;
+
+    private CircuitBreaker circuitBreaker;
+
+    private TokenBucket tokenBucket;
+
+    private boolean tokenBucketResolved;
+
+    public ResilientCloudServerApi(ProviderSettings.ProviderName providerName, CloudServerApi decorated, CloudServerApiResilience resilience) {
+        this.providerName = providerName;
+        this.decorated = decorated;
+        this.resilience = resilience;
+    }
+
+    @Override
+    public Collection<CloudServer> findByMask(final String mask) {
+        return call("findByMask", true, new Callable<Collection<CloudServer>>() {
+            @Override
+            public Collection<CloudServer> call() {
+                return decorated.findByMask(mask);
+            }
+        });
+    }
+
+    @Override
+    public CloudServer get(final String serverId) {
+        return call("get", true, new Callable<CloudServer>() {
+            @Override
+            public CloudServer call() {
+                return decorated.get(serverId);
+            }
+        });
+    }
+
+    /**
+     * Gets a server without blocking the calling thread, e.g. from a {@link cloudify.widget.common.WaitScheduler}
+     * condition. Unlike {@link #get(String)}, it does not wait for the rate limiter and is not retried.
+     *
+     * @throws CallDeferredException If the breaker is open, the rate limit is reached, or the call failed on a
+     *                               transient error. The caller should try again on its next check.
+     */
+    public CloudServer tryGet(String serverId) {
+        CircuitBreaker breaker = getCircuitBreaker();
+        try {
+            breaker.acquirePermission();
+        } catch (CircuitBreakerOpenException e) {
+            throw new CallDeferredException(String.format("[get] call to [%s] deferred", providerName), e);
+        }
+        TokenBucket rateLimiter = getTokenBucket();
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            breaker.release();
+            throw new CallDeferredException(String.format("[get] call to [%s] deferred, rate limit reached", providerName));
+        }
+        try {
+            CloudServer result = decorated.get(serverId);
+            breaker.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                breaker.release();
+                throw e;
+            }
+            breaker.onFailure();
+            if (resilience.isTransient(e)) {
+                throw new CallDeferredException(String.format("[get] call to [%s] failed", providerName), e);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(final String id) {
+        call("delete", true, new Callable<Void>() {
+            @Override
+            public Void call() {
+                decorated.delete(id);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void rebuild(final String id) {
+        call("rebuild", false, new Callable<Void>() {
+            @Override
+            public Void call() {
+                decorated.rebuild(id);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Collection<? extends CloudServerCreated> create(final MachineOptions machineOpts) {
+        return call("create", false, new Callable<Collection<? extends CloudServerCreated>>() {
+            @Override
+            public Collection<? extends CloudServerCreated> call() {
+                return decorated.create(machineOpts);
+            }
+        });
+    }
+
+    @Override
+    public String createCertificate() {
+        return decorated.createCertificate();
+    }
+
+    @Override
+    public void connect(IConnectDetails connectDetails) {
+        setConnectDetails(connectDetails);
+        decorated.connect(connectDetails);
+    }
+
+    @Override
+    public void setConnectDetails(IConnectDetails connectDetails) {
+        this.connectDetails = connectDetails;
+        this.circuitBreaker = null;
+        this.tokenBucketResolved = false;
+        decorated.setConnectDetails(connectDetails);
+    }
+
+    @Override
+    public void connect() {
+        decorated.connect();
+    }
+
+    @Override
+    public void createSecurityGroup(final ISecurityGroupDetails securityGroupDetails) {
+        call("createSecurityGroup", false, new Callable<Void>() {
+            @Override
+            public Void call() {
+                decorated.createSecurityGroup(securityGroupDetails);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    @Deprecated
+    public CloudExecResponse runScriptOnMachine(String script, String serverIp) {
+        return decorated.runScriptOnMachine(script, serverIp);
+    }
+
+    @Override
+    public CloudExecResponse runScriptOnMachine(String script, ISshDetails sshDetails) {
+        return decorated.runScriptOnMachine(script, sshDetails);
+    }
+
+    private <T> T call(String operation, boolean idempotent, Callable<T> call) {
+        CircuitBreaker breaker = getCircuitBreaker();
+        TokenBucket rateLimiter = getTokenBucket();
+        int maxAttempts = idempotent ? Math.max(1, resilience.getMaxAttempts()) : 1;
+        for (int attempt = 1; ; attempt++) {
+            // an open breaker fails right away, without waiting for the rate limiter
+            breaker.acquirePermission();
+            if (rateLimiter != null) {
+                try {
+                    long waitedMillis = rateLimiter.acquire();
+                    if (waitedMillis > 0) {
+                        logger.debug("[{}] call to [{}] was rate limited for [{}] ms", new Object[]{operation, providerName, waitedMillis});
+                    }
+                } catch (InterruptedException interrupted) {
+                    breaker.release();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(String.format("[%s] call to [%s] interrupted while rate limited", operation, providerName), interrupted);
+                }
+            }
+            try {
+                T result = call.call();
+                breaker.onSuccess();
+                return result;
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // the task was cancelled, which says nothing about the cloud's health
+                    breaker.release();
+                    throw propagate(e);
+                }
+                breaker.onFailure();
+                if (attempt >= maxAttempts || !resilience.isTransient(e)) {
+                    throw propagate(e);
+                }
+                long backoffMillis = resilience.getBackoffMillis(attempt);
+                logger.warn(String.format("[%s] call to [%s] failed on attempt [%s/%s], retrying in [%s] ms",
+                        operation, providerName, attempt, maxAttempts, backoffMillis), e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(String.format("[%s] call to [%s] interrupted while backing off", operation, providerName), interrupted);
+                }
+            }
+        }
+    }
+
+    private CircuitBreaker getCircuitBreaker() {
+        if (circuitBreaker == null) {
+            circuitBreaker = resilience.getCircuitBreaker(providerName, connectDetails);
+        }
+        return circuitBreaker;
+    }
+
+    private TokenBucket getTokenBucket() {
+        if (!tokenBucketResolved) {
+            tokenBucket = resilience.getTokenBucket(providerName, connectDetails);
+            tokenBucketResolved = true;
+        }
+        return tokenBucket;
+    }
+
+    private static RuntimeException propagate(Exception e) {
+        return e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+}
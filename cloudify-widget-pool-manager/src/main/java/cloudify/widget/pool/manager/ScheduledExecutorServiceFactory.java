@@ -0,0 +1,45 @@
+package cloudify.widget.pool.manager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Creates a small scheduler for short, periodic work such as polling, which should not hold task threads.
+ */
+public class ScheduledExecutorServiceFactory implements FactoryBean<ScheduledExecutorService> {
+
+    private int poolSize = 4;
+
+    private String threadNamePrefix = "scheduler";
+
+    @Override
+    public ScheduledExecutorService getObject() throws Exception {
+        return Executors.newScheduledThreadPool(poolSize,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat(threadNamePrefix + "-%d")
+                        .build()
+        );
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return ScheduledExecutorService.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return false;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+}
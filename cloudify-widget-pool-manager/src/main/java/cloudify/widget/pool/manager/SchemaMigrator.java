@@ -0,0 +1,135 @@
+package cloudify.widget.pool.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies numbered sql scripts ({@code 1.sql}, {@code 2.sql}, ...) that were not applied yet, in order, and records
+ * each applied version in a version table.
+ * <p/>
+ * Databases that were migrated by hand before the version table existed should set {@code baselineVersion} to
+ * the last script applied. Scripts up to it are then recorded without being run. If {@code existingTable}, a table
+ * created by the first script, is found in a database without recorded versions and no baseline is set, the
+ * migration fails rather than running the first script again.
+ */
+public class SchemaMigrator {
+
+    private static Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("(\\d+)\\.sql");
+
+    private DataSource dataSource;
+
+    // e.g. classpath:sql/*.sql
+    private String scriptsLocation;
+
+    private String versionTable = "schema_version";
+
+    private int baselineVersion = 0;
+
+    // optional, a table created by 1.sql
+    private String existingTable;
+
+    public void migrate() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table if not exists " + versionTable + " (version int not null, applied_at bigint, primary key (version))");
+
+        int currentVersion = getCurrentVersion(jdbcTemplate);
+        if (currentVersion == 0 && baselineVersion <= 0 && existingTable != null && tableExists(jdbcTemplate, existingTable)) {
+            throw new RuntimeException(String.format("table [%s] exists, but no schema version is recorded in [%s]. " +
+                    "the schema of [%s] was migrated by hand, set the baseline version to the last script applied to it",
+                    existingTable, versionTable, scriptsLocation));
+        }
+        if (currentVersion == 0 && baselineVersion > 0) {
+            logger.info("baselining schema at version [{}]", baselineVersion);
+            for (int version = 1; version <= baselineVersion; version++) {
+                recordVersion(jdbcTemplate, version);
+            }
+            currentVersion = baselineVersion;
+        }
+
+        for (Map.Entry<Integer, Resource> script : findScripts().entrySet()) {
+            int version = script.getKey();
+            if (version <= currentVersion) {
+                continue;
+            }
+            logger.info("applying schema script [{}]", script.getValue());
+            ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+            populator.addScript(script.getValue());
+            DatabasePopulatorUtils.execute(populator, dataSource);
+            recordVersion(jdbcTemplate, version);
+            currentVersion = version;
+        }
+        logger.info("schema of [{}] is at version [{}]", scriptsLocation, currentVersion);
+    }
+
+    private int getCurrentVersion(JdbcTemplate jdbcTemplate) {
+        Integer version = jdbcTemplate.queryForObject("select max(version) from " + versionTable, Integer.class);
+        return version == null ? 0 : version;
+    }
+
+    private static boolean tableExists(JdbcTemplate jdbcTemplate, String table) {
+        try {
+            jdbcTemplate.queryForList("select 1 from " + table + " where 1 = 0");
+            return true;
+        } catch (DataAccessException e) {
+            return false;
+        }
+    }
+
+    private void recordVersion(JdbcTemplate jdbcTemplate, int version) {
+        jdbcTemplate.update("insert into " + versionTable + " (version, applied_at) values (?, ?)", version, System.currentTimeMillis());
+    }
+
+    private TreeMap<Integer, Resource> findScripts() {
+        TreeMap<Integer, Resource> scripts = new TreeMap<Integer, Resource>();
+        Resource[] resources;
+        try {
+            resources = new PathMatchingResourcePatternResolver().getResources(scriptsLocation);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to list schema scripts at [" + scriptsLocation + "]", e);
+        }
+        for (Resource resource : resources) {
+            Matcher matcher = SCRIPT_NAME.matcher(resource.getFilename());
+            if (matcher.matches()) {
+                scripts.put(Integer.parseInt(matcher.group(1)), resource);
+            } else {
+                logger.warn("ignoring [{}], schema scripts should be named <version>.sql", resource);
+            }
+        }
+        return scripts;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void setScriptsLocation(String scriptsLocation) {
+        this.scriptsLocation = scriptsLocation;
+    }
+
+    public void setVersionTable(String versionTable) {
+        this.versionTable = versionTable;
+    }
+
+    public void setBaselineVersion(int baselineVersion) {
+        this.baselineVersion = baselineVersion;
+    }
+
+    public void setExistingTable(String existingTable) {
+        this.existingTable = existingTable;
+    }
+}
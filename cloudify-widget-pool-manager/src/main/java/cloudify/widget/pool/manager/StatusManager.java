@@ -1,5 +1,7 @@
 package cloudify.widget.pool.manager;
 
+import cloudify.widget.pool.manager.dto.NodeModel;
+import cloudify.widget.pool.manager.dto.NodeStatus;
 import cloudify.widget.pool.manager.dto.PoolSettings;
 import cloudify.widget.pool.manager.dto.PoolStatus;
 import cloudify.widget.pool.manager.dto.PoolStatusCount;
@@ -7,15 +9,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: eliranm
  * Date: 3/9/14
  * Time: 8:05 PM
+ * <p/>
+ * Keeps the number of nodes per pool and status in memory, so reading the status of the pools does not query
+ * the database.
+ * <p/>
+ * The counts are loaded on startup, and are then kept up to date by whoever creates, deletes or changes the
+ * status of a node. Since changes made elsewhere (e.g. by another instance, or by hand) are missed, the counts
+ * are periodically reloaded from the database.
+ * <p/>
+ * A change is written to the database before it is reported here, so a reload may or may not see a change that
+ * is in between. Changes are therefore wrapped with {@link #beginChange()} and {@link #endChange()}, and a reload
+ * is only kept if no change was in flight while it was querying.
  */
 public class StatusManager {
 
@@ -24,40 +36,198 @@ public class StatusManager {
     @Autowired
     private NodesDao nodesDao;
 
-    public void updateStatus(PoolStatus poolStatus) {
+    // optional, reloads the counts periodically
+    private ScheduledExecutorService scheduler;
+
+    private long revalidateIntervalMillis = 5 * 60 * 1000;
+
+    // guarded by 'this'
+    private Map<String /* poolId */, EnumMap<NodeStatus, Integer>> counts = new HashMap<String, EnumMap<NodeStatus, Integer>>();
+
+    // guarded by 'this', incremented on every change, so a reload can tell the counts changed while it was querying
+    private long modCount = 0;
+
+    // guarded by 'this', changes written, or about to be written, to the database but not yet counted here
+    private int changesInFlight = 0;
+
+    // how long a reload waits for the changes in flight to complete, and how many times it queries before giving up
+    private long quietWaitMillis = 1000;
+
+    private int reloadAttempts = 3;
+
+    public void init() throws InterruptedException {
+        load(true);
+        if (scheduler != null) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        revalidate();
+                    } catch (Exception e) {
+                        // keep the schedule alive
+                        logger.error("failed to revalidate pool statuses", e);
+                    }
+                }
+            }, revalidateIntervalMillis, revalidateIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
     }
 
-    public void setStatus(PoolStatus poolStatus) {
+    private void revalidate() throws InterruptedException {
+        for (int attempt = 0; attempt < reloadAttempts; attempt++) {
+            if (load(false)) {
+                return;
+            }
+        }
+        logger.debug("pool statuses kept changing while revalidating, will retry on the next cycle");
     }
 
-    public Collection<PoolStatus> listPoolStatuses() {
+    /**
+     * Reloads the counts from the database.
+     *
+     * @param force If {@code false}, the reload is skipped when a change was in flight while querying, as the query
+     *              result may or may not include the change.
+     * @return {@code true} if the counts were reloaded.
+     */
+    private boolean load(boolean force) throws InterruptedException {
+        long expectedModCount;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + quietWaitMillis;
+            long remaining;
+            while (!force && changesInFlight > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            if (!force && changesInFlight > 0) {
+                return false;
+            }
+            expectedModCount = modCount;
+        }
         List<PoolStatusCount> poolStatusCounts = nodesDao.getPoolStatusCounts();
-        return _getPoolStatuses(poolStatusCounts);
+        synchronized (this) {
+            if (!force && modCount != expectedModCount) {
+                return false;
+            }
+            Map<String, EnumMap<NodeStatus, Integer>> loaded = new HashMap<String, EnumMap<NodeStatus, Integer>>();
+            for (PoolStatusCount poolStatusCount : poolStatusCounts) {
+                getCounts(loaded, poolStatusCount.getPoolId()).put(poolStatusCount.getNodeStatus(), poolStatusCount.getCount());
+            }
+            Collection<PoolStatus> previous = _getPoolStatuses(counts);
+            if (!new HashSet<PoolStatus>(previous).equals(new HashSet<PoolStatus>(_getPoolStatuses(loaded)))) {
+                logger.warn("pool statuses drifted from the database, reloading. was [{}]", previous);
+            }
+            counts = loaded;
+            return true;
+        }
+    }
+
+    /**
+     * Call before writing a node change to the database, and {@link #endChange()} once it is reported (or failed),
+     * typically in a {@code finally} block.
+     */
+    public synchronized void beginChange() {
+        changesInFlight++;
+        modCount++;
+    }
+
+    public synchronized void endChange() {
+        if (--changesInFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    public synchronized void nodesCreated(Collection<NodeModel> nodeModels) {
+        for (NodeModel nodeModel : nodeModels) {
+            add(getCounts(counts, nodeModel.poolId), nodeModel.nodeStatus, 1);
+        }
+        modCount++;
+    }
+
+    public synchronized void nodeStatusChanged(String poolId, NodeStatus from, NodeStatus to) {
+        if (from == to) {
+            return;
+        }
+        EnumMap<NodeStatus, Integer> poolCounts = getCounts(counts, poolId);
+        add(poolCounts, from, -1);
+        add(poolCounts, to, 1);
+        modCount++;
+    }
+
+    public synchronized void nodeDeleted(NodeModel nodeModel) {
+        add(getCounts(counts, nodeModel.poolId), nodeModel.nodeStatus, -1);
+        modCount++;
+    }
+
+    public synchronized Collection<PoolStatus> listPoolStatuses() {
+        return _getPoolStatuses(counts);
+    }
+
+    /**
+     * @return The pool's status, or {@code null} if the pool has no nodes.
+     */
+    public synchronized PoolStatus getPoolStatus( PoolSettings poolSettings ) {
+        EnumMap<NodeStatus, Integer> poolCounts = counts.get(poolSettings.getUuid());
+        return poolCounts == null ? null : _getPoolStatus(poolSettings.getUuid(), poolCounts);
+    }
+
+    private static EnumMap<NodeStatus, Integer> getCounts(Map<String, EnumMap<NodeStatus, Integer>> counts, String poolId) {
+        EnumMap<NodeStatus, Integer> poolCounts = counts.get(poolId);
+        if (poolCounts == null) {
+            poolCounts = new EnumMap<NodeStatus, Integer>(NodeStatus.class);
+            counts.put(poolId, poolCounts);
+        }
+        return poolCounts;
+    }
+
+    private static void add(EnumMap<NodeStatus, Integer> poolCounts, NodeStatus nodeStatus, int delta) {
+        Integer count = poolCounts.get(nodeStatus);
+        poolCounts.put(nodeStatus, (count == null ? 0 : count) + delta);
     }
 
-    public PoolStatus getPoolStatus( PoolSettings poolSettings ) {
-        List<PoolStatusCount> poolStatusCountsOfPool = nodesDao.getPoolStatusCountsOfPool(poolSettings.getUuid());
-        Collection<PoolStatus> poolStatuses = _getPoolStatuses(poolStatusCountsOfPool);
-        if (!poolStatuses.isEmpty() && poolStatuses.size() == 1) {
-            return poolStatuses.iterator().next();
+    private static Collection<PoolStatus> _getPoolStatuses(Map<String, EnumMap<NodeStatus, Integer>> counts) {
+        List<PoolStatus> poolStatuses = new ArrayList<PoolStatus>(counts.size());
+        for (Map.Entry<String, EnumMap<NodeStatus, Integer>> entry : counts.entrySet()) {
+            PoolStatus poolStatus = _getPoolStatus(entry.getKey(), entry.getValue());
+            if (poolStatus != null) {
+                poolStatuses.add(poolStatus);
+            }
         }
-        return null;
+        return poolStatuses;
     }
 
-    private Collection<PoolStatus> _getPoolStatuses(List<PoolStatusCount> poolStatusCounts) {
-        Map<String /* poolId */, PoolStatus> poolIdToPoolStatusMap = new HashMap<String, PoolStatus>();
-        for (PoolStatusCount poolStatusCount : poolStatusCounts) {
-            String poolId = poolStatusCount.getPoolId();
-            // init if not exist
-            if ( !poolIdToPoolStatusMap.containsKey(poolId) ){
-                PoolStatus poolStatus = new PoolStatus();
-                poolStatus.setPoolId(poolId);
-                poolIdToPoolStatusMap.put(poolId, poolStatus);
+    // only statuses with nodes are listed, as when counting in the database
+    private static PoolStatus _getPoolStatus(String poolId, EnumMap<NodeStatus, Integer> poolCounts) {
+        PoolStatus poolStatus = new PoolStatus();
+        poolStatus.setPoolId(poolId);
+        for (Map.Entry<NodeStatus, Integer> entry : poolCounts.entrySet()) {
+            if (entry.getValue() > 0) {
+                poolStatus.getCountPerNodeStatus().put(entry.getKey(), entry.getValue());
             }
-            // setting count per status
-            poolIdToPoolStatusMap.get(poolId).getCountPerNodeStatus().put( poolStatusCount.getNodeStatus(), poolStatusCount.getCount() );
         }
-        return poolIdToPoolStatusMap.values();
+        return poolStatus.getCountPerNodeStatus().isEmpty() ? null : poolStatus;
     }
 
+    public void setNodesDao(NodesDao nodesDao) {
+        this.nodesDao = nodesDao;
+    }
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setRevalidateIntervalMillis(long revalidateIntervalMillis) {
+        this.revalidateIntervalMillis = revalidateIntervalMillis;
+    }
+
+    public void setQuietWaitMillis(long quietWaitMillis) {
+        this.quietWaitMillis = quietWaitMillis;
+    }
+
+    public void setReloadAttempts(int reloadAttempts) {
+        this.reloadAttempts = reloadAttempts;
+    }
 }
@@ -1,16 +1,23 @@
 package cloudify.widget.pool.manager;
 
 import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.dto.ProviderSettings;
+import cloudify.widget.pool.manager.dto.TaskModel;
 import cloudify.widget.pool.manager.tasks.*;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -22,10 +29,30 @@ public class TaskExecutor {
 
     private static Logger logger = LoggerFactory.getLogger(TaskExecutor.class);
 
-    private ListeningExecutorService executorService;
+    private ExecutorService executorService;
+
+    // tasks of providers without a bulkhead fall back to the executor service
+    private Map<ProviderSettings.ProviderName, Bulkhead> bulkheads = Collections.emptyMap();
+
+    // only takes effect on executors with a prioritized queue, otherwise tasks run FIFO
+    private TaskPriorities taskPriorities = new TaskPriorities();
 
 //    private ListeningExecutorService backgroundExecutorService;
 
+    // futures of node bound tasks that are queued or running, used to coalesce duplicate submissions
+    private final ConcurrentMap<TaskRegistrar.TaskKey, ListenableFuture<?>> inFlightTasks =
+            new ConcurrentHashMap<TaskRegistrar.TaskKey, ListenableFuture<?>>();
+
+    // queued or running tasks by their journal id, so they can be cancelled through the api
+    private final ConcurrentMap<Long, QueuedTask<?>> registeredTasks = new ConcurrentHashMap<Long, QueuedTask<?>>();
+
+    // maximal run time per task, tasks without a timeout may run forever
+    private Map<TaskName, Long> taskTimeouts = Collections.emptyMap();
+
+    private ScheduledExecutorService timeoutScheduler;
+
+    private TaskMetrics taskMetrics;
+
     private int terminationTimeoutInSeconds = 30;
 
     @Autowired
@@ -37,36 +64,176 @@ public class TaskExecutor {
 
     public void destroy() {
         executorService.shutdown();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.shutdown();
+        }
 //        backgroundExecutorService.shutdown();
         try {
             // Wait until all threads are finish
             executorService.awaitTermination(terminationTimeoutInSeconds, TimeUnit.SECONDS);
+            for (Bulkhead bulkhead : bulkheads.values()) {
+                bulkhead.awaitTermination(terminationTimeoutInSeconds, TimeUnit.SECONDS);
+            }
 //            backgroundExecutorService.awaitTermination(terminationTimeoutInSeconds, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             logger.error("await termination interrupted", e);
         }
+        // keeps enforcing deadlines while the running tasks drain
+        if (timeoutScheduler != null) {
+            timeoutScheduler.shutdownNow();
+        }
     }
 
-    public <T extends Task> void execute(T task, TaskConfig taskConfig, PoolSettings poolSettings) {
-        execute(task, taskConfig, poolSettings, new NoopTaskCallback());
+    public <T extends Task> ListenableFuture<?> execute(T task, TaskConfig taskConfig, PoolSettings poolSettings) {
+        return execute(task, taskConfig, poolSettings, new NoopTaskCallback());
     }
 
-    public <T extends Task, C extends TaskConfig, R> void execute(T task, C taskConfig, PoolSettings poolSettings, TaskCallback<R> taskCallback) {
+    /**
+     * Executes a task asynchronously.
+     * <p/>
+     * A task that works on a specific node is not executed if an equivalent task (same name, pool and node) is
+     * already queued or running. Instead, the callback is attached to the existing task's future, which is returned.
+     *
+     * @return The future of the task's result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Task, C extends TaskConfig, R> ListenableFuture<R> execute(T task, C taskConfig, PoolSettings poolSettings, TaskCallback<R> taskCallback) {
         assert executorService != null : "executor must not be null";
         assert poolSettings != null : "pool settings must not be null";
 
-        TaskRegistrar.TaskDecorator worker = new TaskRegistrar.TaskDecoratorImpl<C, R>(task);
+        if (taskCallback == null) {
+            taskCallback = new NoopTaskCallback();
+        }
+
+        final TaskRegistrar.TaskKey taskKey = TaskRegistrar.TaskKey.of(task.getTaskName(), poolSettings, taskConfig);
+        if (taskKey != null) {
+            ListenableFuture<R> inFlight = (ListenableFuture<R>) inFlightTasks.get(taskKey);
+            if (inFlight != null) {
+                logger.info("task [{}] is already in flight, attaching to it", taskKey);
+                Futures.addCallback(inFlight, taskCallback);
+                return inFlight;
+            }
+        }
+
+        final TaskRegistrar.TaskDecorator<C, R> worker = new TaskRegistrar.TaskDecoratorImpl<C, R>(task);
         worker.setTasksDao(tasksDao);
+        worker.setTaskMetrics(taskMetrics);
         worker.setPoolSettings(poolSettings);
         worker.setTaskConfig(taskConfig);
 
-        if (worker != null) {
-            ListenableFuture listenableFuture = executorService.submit(worker);
-            if (taskCallback == null) {
-                taskCallback = new NoopTaskCallback();
+        final QueuedTask<R> queuedTask = new QueuedTask<R>(worker, poolSettings, taskPriorities);
+        Long timeoutMillis = taskTimeouts.get(task.getTaskName());
+        if (timeoutMillis != null) {
+            queuedTask.setTimeout(timeoutMillis, timeoutScheduler);
+        }
+        if (taskKey != null) {
+            ListenableFuture<R> inFlight = (ListenableFuture<R>) inFlightTasks.putIfAbsent(taskKey, queuedTask.getFuture());
+            if (inFlight != null) {
+                // lost the race to an equivalent submission
+                logger.info("task [{}] is already in flight, attaching to it", taskKey);
+                Futures.addCallback(inFlight, taskCallback);
+                return inFlight;
             }
-            Futures.addCallback(listenableFuture, taskCallback);
+            queuedTask.getFuture().addListener(new Runnable() {
+                @Override
+                public void run() {
+                    inFlightTasks.remove(taskKey, queuedTask.getFuture());
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        // journal the task until it is done, whichever way. the journal is best effort, it must not fail the task
+        try {
+            worker.register();
+        } catch (Exception e) {
+            logger.error("failed to register task [" + queuedTask + "]", e);
+        }
+        final TaskModel taskModel = worker.getTaskModel();
+        if (taskModel != null && taskModel.id != TaskModel.INITIAL_ID) {
+            registeredTasks.put(taskModel.id, queuedTask);
         }
+        queuedTask.getFuture().addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (taskModel != null) {
+                    registeredTasks.remove(taskModel.id, queuedTask);
+                }
+                if (queuedTask.isTimedOut()) {
+                    logger.error("task [{}] timed out", queuedTask);
+                }
+                recordOutcome(queuedTask);
+                try {
+                    worker.unregister();
+                } catch (Exception e) {
+                    logger.error("failed to unregister task [" + queuedTask + "]", e);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        Futures.addCallback(queuedTask.getFuture(), taskCallback);
+        try {
+            Bulkhead bulkhead = getBulkhead(poolSettings);
+            if (bulkhead != null) {
+                bulkhead.execute(queuedTask);
+            } else {
+                executorService.execute(queuedTask);
+            }
+        } catch (RejectedExecutionException e) {
+            logger.error("task [{}] was rejected, cancelling", queuedTask, e);
+            queuedTask.cancel();
+        }
+        return queuedTask.getFuture();
+    }
+
+    /**
+     * Cancels a queued or running task. A running task is interrupted, which tears down its blocking calls.
+     *
+     * @param taskId The id of the task's journal entry.
+     * @return {@code false} if no such task is queued or running in this executor.
+     */
+    public boolean cancel(long taskId) {
+        QueuedTask<?> queuedTask = registeredTasks.get(taskId);
+        if (queuedTask == null) {
+            return false;
+        }
+        logger.info("cancelling task [{}] with id [{}]", queuedTask, taskId);
+        return queuedTask.cancel(true);
+    }
+
+    /**
+     * Records how a task ended, judged by its future rather than by the running thread. Tasks may swallow the
+     * interrupt that cancels them, and tasks cancelled before they start never run at all.
+     */
+    private void recordOutcome(QueuedTask<?> queuedTask) {
+        if (taskMetrics == null) {
+            return;
+        }
+        long startTime = queuedTask.getStartTime();
+        if (startTime == 0) {
+            if (queuedTask.getFuture().isCancelled()) {
+                taskMetrics.recordCancelledBeforeStart(queuedTask.getTaskName(), queuedTask.getPoolSettings());
+            }
+            return;
+        }
+        TaskMetrics.Outcome outcome;
+        if (queuedTask.getFuture().isCancelled()) {
+            // by a timeout or through the api
+            outcome = TaskMetrics.Outcome.CANCELLED;
+        } else {
+            try {
+                queuedTask.getFuture().get();
+                outcome = TaskMetrics.Outcome.SUCCESS;
+            } catch (Exception e) {
+                outcome = TaskMetrics.Outcome.FAILURE;
+            }
+        }
+        taskMetrics.recordRun(queuedTask.getTaskName(), queuedTask.getPoolSettings(),
+                System.currentTimeMillis() - startTime, outcome);
+    }
+
+    private Bulkhead getBulkhead(PoolSettings poolSettings) {
+        ProviderSettings provider = poolSettings.getProvider();
+        return provider == null ? null : bulkheads.get(provider.getName());
     }
 
 
@@ -75,7 +242,27 @@ public class TaskExecutor {
     }
 
     public void setExecutorService(ExecutorService executorService) {
-        this.executorService = MoreExecutors.listeningDecorator(executorService);
+        this.executorService = executorService;
+    }
+
+    public void setTaskPriorities(TaskPriorities taskPriorities) {
+        this.taskPriorities = taskPriorities;
+    }
+
+    public void setBulkheads(Map<ProviderSettings.ProviderName, Bulkhead> bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    public void setTaskTimeouts(Map<TaskName, Long> taskTimeouts) {
+        this.taskTimeouts = taskTimeouts;
+    }
+
+    public void setTaskMetrics(TaskMetrics taskMetrics) {
+        this.taskMetrics = taskMetrics;
+    }
+
+    public void setTimeoutScheduler(ScheduledExecutorService timeoutScheduler) {
+        this.timeoutScheduler = timeoutScheduler;
     }
 
 /*
@@ -0,0 +1,136 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.dto.ProviderSettings;
+import cloudify.widget.pool.manager.dto.TaskMetricsSnapshot;
+import cloudify.widget.pool.manager.tasks.TaskName;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects queue wait and run time latencies, and outcome counters, of executed tasks.
+ * <p/>
+ * Metrics are kept per task name, provider and pool. They live in memory and start over when the pool manager
+ * restarts.
+ */
+public class TaskMetrics {
+
+    public static enum Outcome {
+        SUCCESS, FAILURE, CANCELLED
+    }
+
+    private final ConcurrentMap<MetricsKey, TaskStats> stats = new ConcurrentHashMap<MetricsKey, TaskStats>();
+
+    public void recordQueueWait(TaskName taskName, PoolSettings poolSettings, long queueWaitMillis) {
+        getStats(taskName, poolSettings).queueWait.record(queueWaitMillis);
+    }
+
+    public void recordRun(TaskName taskName, PoolSettings poolSettings, long runTimeMillis, Outcome outcome) {
+        TaskStats taskStats = getStats(taskName, poolSettings);
+        taskStats.runTime.record(runTimeMillis);
+        switch (outcome) {
+            case SUCCESS:
+                taskStats.successCount.incrementAndGet();
+                break;
+            case FAILURE:
+                taskStats.failureCount.incrementAndGet();
+                break;
+            case CANCELLED:
+                taskStats.cancelledCount.incrementAndGet();
+                break;
+        }
+    }
+
+    /**
+     * Counts a task that was cancelled before it started, e.g. while queued or when rejected. It has no run time.
+     */
+    public void recordCancelledBeforeStart(TaskName taskName, PoolSettings poolSettings) {
+        getStats(taskName, poolSettings).cancelledCount.incrementAndGet();
+    }
+
+    public List<TaskMetricsSnapshot> snapshot() {
+        List<TaskMetricsSnapshot> result = new LinkedList<TaskMetricsSnapshot>();
+        for (Map.Entry<MetricsKey, TaskStats> entry : stats.entrySet()) {
+            MetricsKey key = entry.getKey();
+            TaskStats taskStats = entry.getValue();
+            result.add(new TaskMetricsSnapshot()
+                    .setTaskName(key.taskName)
+                    .setProviderName(key.providerName)
+                    .setPoolId(key.poolId)
+                    .setSuccessCount(taskStats.successCount.get())
+                    .setFailureCount(taskStats.failureCount.get())
+                    .setCancelledCount(taskStats.cancelledCount.get())
+                    .setQueueWait(taskStats.queueWait.summarize())
+                    .setRunTime(taskStats.runTime.summarize()));
+        }
+        return result;
+    }
+
+    private TaskStats getStats(TaskName taskName, PoolSettings poolSettings) {
+        MetricsKey key = new MetricsKey(taskName, poolSettings);
+        TaskStats taskStats = stats.get(key);
+        if (taskStats == null) {
+            TaskStats newStats = new TaskStats();
+            taskStats = stats.putIfAbsent(key, newStats);
+            if (taskStats == null) {
+                taskStats = newStats;
+            }
+        }
+        return taskStats;
+    }
+
+    private static class TaskStats {
+
+        final LatencyHistogram queueWait = new LatencyHistogram();
+
+        final LatencyHistogram runTime = new LatencyHistogram();
+
+        final AtomicLong successCount = new AtomicLong();
+
+        final AtomicLong failureCount = new AtomicLong();
+
+        final AtomicLong cancelledCount = new AtomicLong();
+    }
+
+    private static class MetricsKey {
+
+        final TaskName taskName;
+
+        final ProviderSettings.ProviderName providerName;
+
+        final String poolId;
+
+        MetricsKey(TaskName taskName, PoolSettings poolSettings) {
+            this.taskName = taskName;
+            this.providerName = poolSettings.getProvider() == null ? null : poolSettings.getProvider().getName();
+            this.poolId = poolSettings.getUuid();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MetricsKey that = (MetricsKey) o;
+
+            if (taskName != that.taskName) return false;
+            if (providerName != that.providerName) return false;
+            if (poolId != null ? !poolId.equals(that.poolId) : that.poolId != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = taskName != null ? taskName.hashCode() : 0;
+            result = 31 * result + (providerName != null ? providerName.hashCode() : 0);
+            result = 31 * result + (poolId != null ? poolId.hashCode() : 0);
+            return result;
+        }
+    }
+}
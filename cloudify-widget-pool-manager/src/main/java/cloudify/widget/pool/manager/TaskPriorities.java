@@ -0,0 +1,58 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.tasks.TaskName;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Assigns a priority to tasks according to their name and pool. Higher values run first.
+ * <p/>
+ * Priorities are traded for time: each priority point moves a task ahead of tasks that were
+ * submitted up to {@code agingIntervalMillis} later. This way low priority tasks are delayed, but never starved,
+ * and the ordering of queued tasks never has to be re-evaluated.
+ */
+public class TaskPriorities {
+
+    private Map<TaskName, Integer> taskPriorities = Collections.emptyMap();
+
+    private Map<String, Integer> poolPriorities = Collections.emptyMap();
+
+    private long agingIntervalMillis = 1000;
+
+    public int getPriority(TaskName taskName, PoolSettings poolSettings) {
+        int priority = 0;
+        Integer taskPriority = taskPriorities.get(taskName);
+        if (taskPriority != null) {
+            priority += taskPriority;
+        }
+        Integer poolPriority = poolSettings == null ? null : poolPriorities.get(poolSettings.getUuid());
+        if (poolPriority != null) {
+            priority += poolPriority;
+        }
+        return priority;
+    }
+
+    /**
+     * @return The rank of a task submitted at the given time. Lower ranks run first.
+     */
+    public long getRank(TaskName taskName, PoolSettings poolSettings, long submitTime) {
+        return submitTime - getPriority(taskName, poolSettings) * agingIntervalMillis;
+    }
+
+    public void setTaskPriorities(Map<TaskName, Integer> taskPriorities) {
+        this.taskPriorities = taskPriorities;
+    }
+
+    /**
+     * @param poolPriorities Priorities added to the task priority, by pool id.
+     */
+    public void setPoolPriorities(Map<String, Integer> poolPriorities) {
+        this.poolPriorities = poolPriorities;
+    }
+
+    public void setAgingIntervalMillis(long agingIntervalMillis) {
+        this.agingIntervalMillis = agingIntervalMillis;
+    }
+}
@@ -1,15 +1,20 @@
 package cloudify.widget.pool.manager;
 
 import cloudify.widget.pool.manager.dto.TaskModel;
+import cloudify.widget.pool.manager.dto.TaskState;
+import cloudify.widget.pool.manager.tasks.TaskName;
 import com.mysql.jdbc.Statement;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 
@@ -17,6 +22,11 @@ import java.util.List;
  * User: eliranm
  * Date: 3/19/14
  * Time: 12:25 PM
+ * <p/>
+ * A durable tasks journal. Tasks left in it after a shutdown are replayed by the {@link TasksJournalReplayer}.
+ * <p/>
+ * Several pool manager instances may share the journal, so each task is journaled with the {@code owner} that
+ * submitted it. The owner defaults to the host name, and must be set when several instances share a host.
  */
 public class TasksDao implements ITasksDao {
 
@@ -25,13 +35,45 @@ public class TasksDao implements ITasksDao {
     public static final String COL_TASK_NAME = "task_name";
     public static final String COL_NODE_ID = "node_id";
     public static final String COL_POOL_ID = "pool_id";
+    public static final String COL_TASK_STATE = "task_state";
+    public static final String COL_START_TIME = "start_time";
+    public static final String COL_OWNER = "owner";
+
+    private static final String COLUMNS = COL_TASK_ID + "," + COL_TASK_NAME + "," + COL_NODE_ID + "," + COL_POOL_ID + "," + COL_TASK_STATE + "," + COL_START_TIME + "," + COL_OWNER;
+    static final String SQL_INSERT = "insert into " + TABLE_NAME + " (" + COL_TASK_NAME + "," + COL_NODE_ID + "," + COL_POOL_ID + "," + COL_TASK_STATE + "," + COL_START_TIME + "," + COL_OWNER + ") values (?, ?, ?, ?, ?, ?)";
+    static final String SQL_SELECT = "select " + COLUMNS + " from " + TABLE_NAME;
+    static final String SQL_SELECT_ALL = SQL_SELECT + " order by " + COL_TASK_ID;
+    static final String SQL_SELECT_BY_ID = SQL_SELECT + " where " + COL_TASK_ID + " = ?";
+    static final String SQL_SELECT_OF_POOL = SQL_SELECT + " where " + COL_POOL_ID + " = ?";
+    static final String SQL_SELECT_OF_NODE = SQL_SELECT + " where " + COL_NODE_ID + " = ?";
+    static final String SQL_SELECT_TO_REPLAY = SQL_SELECT + " where " + COL_OWNER + " = ? or " + COL_START_TIME + " < ? order by " + COL_TASK_ID;
+    static final String SQL_UPDATE = "update " + TABLE_NAME + " set " + COL_TASK_NAME + " = ?," + COL_NODE_ID + " = ?," + COL_POOL_ID + " = ?," + COL_TASK_STATE + " = ?," + COL_START_TIME + " = ? where " + COL_TASK_ID + " = ?";
+    static final String SQL_DELETE = "delete from " + TABLE_NAME + " where " + COL_TASK_ID + " = ?";
+
+    public static final RowMapper<TaskModel> TASK_MODEL_ROW_MAPPER = new TaskModelRowMapper();
 
     private JdbcTemplate jdbcTemplate;
 
+    private String owner = getHostName();
+
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    /**
+     * @param owner Identifies this pool manager instance, and must not change across its restarts. Empty values
+     *              are ignored, keeping the host name.
+     */
+    public void setOwner(String owner) {
+        if (owner != null && !owner.trim().isEmpty()) {
+            this.owner = owner.trim();
+        }
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
     public boolean create(final TaskModel taskModel) {
 
         // used to hold the auto generated key in the 'id' column
@@ -42,12 +84,15 @@ public class TasksDao implements ITasksDao {
                     @Override
                     public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
                         PreparedStatement ps = con.prepareStatement(
-                                "insert into " + TABLE_NAME + " (" + COL_TASK_NAME + "," + COL_NODE_ID + "," + COL_POOL_ID + ") values (?, ?, ?)",
+                                SQL_INSERT,
                                 Statement.RETURN_GENERATED_KEYS // specify to populate the generated key holder
                         );
                         ps.setString(1, taskModel.taskName.name());
                         ps.setLong(2, taskModel.nodeId);
                         ps.setString(3, taskModel.poolId);
+                        ps.setString(4, taskModel.taskState.name());
+                        ps.setLong(5, taskModel.startTime);
+                        ps.setString(6, owner);
                         return ps;
                     }
                 },
@@ -56,34 +101,75 @@ public class TasksDao implements ITasksDao {
 
         // keep data integrity - fetch the last insert id and update the model
         taskModel.id = keyHolder.getKey().longValue();
+        taskModel.owner = owner;
 
         return affected > 0;
     }
 
+    public List<TaskModel> readAll() {
+        return jdbcTemplate.query(SQL_SELECT_ALL, TASK_MODEL_ROW_MAPPER);
+    }
+
+    /**
+     * @return The tasks journaled by this instance, and those of other instances which started before
+     * {@code abandonedBefore}, and so can no longer be running.
+     */
+    public List<TaskModel> readAllToReplay(long abandonedBefore) {
+        return jdbcTemplate.query(SQL_SELECT_TO_REPLAY, new Object[]{owner, abandonedBefore}, TASK_MODEL_ROW_MAPPER);
+    }
+
     public List<TaskModel> readAllOfPool(String poolId) {
-        return jdbcTemplate.query("select * from " + TABLE_NAME + " where " + COL_POOL_ID + " = ?",
-                new Object[]{poolId},
-                new BeanPropertyRowMapper<TaskModel>(TaskModel.class));
+        return jdbcTemplate.query(SQL_SELECT_OF_POOL, new Object[]{poolId}, TASK_MODEL_ROW_MAPPER);
+    }
+
+    public List<TaskModel> readAllOfNode(long nodeId) {
+        return jdbcTemplate.query(SQL_SELECT_OF_NODE, new Object[]{nodeId}, TASK_MODEL_ROW_MAPPER);
     }
 
     public TaskModel read(long taskId) {
         try {
-            return jdbcTemplate.queryForObject("select * from " + TABLE_NAME + " where " + COL_TASK_ID + " = ?",
-                    new Object[]{taskId},
-                    new BeanPropertyRowMapper<TaskModel>(TaskModel.class));
+            return jdbcTemplate.queryForObject(SQL_SELECT_BY_ID, new Object[]{taskId}, TASK_MODEL_ROW_MAPPER);
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
     }
 
     public int update(TaskModel taskModel) {
-        return jdbcTemplate.update(
-                "update " + TABLE_NAME + " set " + COL_TASK_NAME + " = ?," + COL_NODE_ID + " = ?," + COL_POOL_ID + " = ? where " + COL_TASK_ID + " = ?",
-                taskModel.taskName.name(), taskModel.nodeId, taskModel.poolId, taskModel.id);
+        return jdbcTemplate.update(SQL_UPDATE,
+                taskModel.taskName.name(), taskModel.nodeId, taskModel.poolId, taskModel.taskState.name(), taskModel.startTime, taskModel.id);
     }
 
     public int delete(long taskId) {
-        return jdbcTemplate.update("delete from " + TABLE_NAME + " where " + COL_TASK_ID + " = ?", taskId);
+        return jdbcTemplate.update(SQL_DELETE, taskId);
+    }
+
+    /**
+     * Maps the columns of {@link #COLUMNS}. Stateless, so a single instance is shared by all queries.
+     */
+    public static class TaskModelRowMapper implements RowMapper<TaskModel> {
+
+        @Override
+        public TaskModel mapRow(ResultSet rs, int rowNum) throws SQLException {
+            TaskModel taskModel = new TaskModel();
+            taskModel.id = rs.getLong(COL_TASK_ID);
+            String taskName = rs.getString(COL_TASK_NAME);
+            taskModel.taskName = taskName == null ? null : TaskName.valueOf(taskName);
+            taskModel.nodeId = rs.getLong(COL_NODE_ID);
+            taskModel.poolId = rs.getString(COL_POOL_ID);
+            String taskState = rs.getString(COL_TASK_STATE);
+            taskModel.taskState = taskState == null ? null : TaskState.valueOf(taskState);
+            taskModel.startTime = rs.getLong(COL_START_TIME);
+            taskModel.owner = rs.getString(COL_OWNER);
+            return taskModel;
+        }
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
     }
 
 }
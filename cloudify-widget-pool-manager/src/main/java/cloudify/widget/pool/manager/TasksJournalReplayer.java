@@ -0,0 +1,186 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.NodeModel;
+import cloudify.widget.pool.manager.dto.NodeStatus;
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.dto.TaskModel;
+import cloudify.widget.pool.manager.tasks.DeleteMachineConfig;
+import cloudify.widget.pool.manager.tasks.ProvisioningPipeline;
+import cloudify.widget.pool.manager.tasks.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resumes the tasks left in the tasks journal by a previous run of the pool manager.
+ * <p/>
+ * Tasks are not re-run blindly, but resumed according to the current state of their pool or node, so replaying
+ * a task that had actually completed does nothing:
+ * <ul>
+ * <li>create tasks become a single batch fill of their pool, which only creates what the pool is missing.</li>
+ * <li>bootstrap tasks resume nodes that are not bootstrapped yet. Nodes left {@code BOOTSTRAPPING} are reset to
+ * {@code CREATED} first, since their bootstrap was interrupted.</li>
+ * <li>delete tasks are resubmitted if their node still exists.</li>
+ * </ul>
+ * Only the tasks journaled by this instance are replayed, along with tasks of other instances which started more
+ * than {@code abandonedAfterMillis} ago. Since every task times out, those can no longer be running. Each task
+ * is claimed by deleting its journal entry, so instances starting together do not replay the same task twice.
+ * <p/>
+ * Replay requires a {@link PoolSettingsProvider}. Without one, the journal is left as is.
+ */
+public class TasksJournalReplayer {
+
+    private static Logger logger = LoggerFactory.getLogger(TasksJournalReplayer.class);
+
+    @Autowired(required = false)
+    private PoolSettingsProvider poolSettingsProvider;
+
+    private ITasksDao tasksDao;
+
+    private NodesDao nodesDao;
+
+    private StatusManager statusManager;
+
+    private TaskExecutor taskExecutor;
+
+    private ProvisioningPipeline provisioningPipeline;
+
+    private ObjectFactory<Task> deleteMachineTaskFactory;
+
+    // longer than the longest task timeout, including the time spent queued
+    private long abandonedAfterMillis = 2 * 60 * 60 * 1000;
+
+    public void init() {
+        try {
+            replay();
+        } catch (Exception e) {
+            // never fail the startup over it
+            logger.error("failed to replay the tasks journal", e);
+        }
+    }
+
+    public void replay() {
+        List<TaskModel> taskModels = tasksDao.readAllToReplay(System.currentTimeMillis() - abandonedAfterMillis);
+        if (taskModels.isEmpty()) {
+            return;
+        }
+        if (poolSettingsProvider == null) {
+            logger.warn("found [{}] tasks to replay, but no pool settings provider, leaving them in the journal", taskModels.size());
+            return;
+        }
+
+        Map<String, PoolSettings> poolSettingsById = new HashMap<String, PoolSettings>();
+        for (PoolSettings poolSettings : poolSettingsProvider.listPoolSettings()) {
+            poolSettingsById.put(poolSettings.getUuid(), poolSettings);
+        }
+
+        logger.info("replaying [{}] tasks from the journal", taskModels.size());
+        Set<String> filledPools = new HashSet<String>();
+        for (TaskModel taskModel : taskModels) {
+            // resubmitted tasks are journaled again
+            if (tasksDao.delete(taskModel.id) == 0) {
+                logger.debug("task [{}] was claimed by another instance", taskModel.id);
+                continue;
+            }
+
+            PoolSettings poolSettings = poolSettingsById.get(taskModel.poolId);
+            if (poolSettings == null) {
+                logger.warn("pool of task [{}] no longer exists, dropping it", taskModel);
+                continue;
+            }
+            try {
+                replay(taskModel, poolSettings, filledPools);
+            } catch (Exception e) {
+                logger.error("failed to replay task [" + taskModel + "]", e);
+            }
+        }
+    }
+
+    private void replay(TaskModel taskModel, PoolSettings poolSettings, Set<String> filledPools) {
+        switch (taskModel.taskName) {
+            case CREATE_MACHINE:
+                if (filledPools.add(poolSettings.getUuid())) {
+                    logger.info("resuming creation in pool [{}]", poolSettings.getUuid());
+                    provisioningPipeline.fill(poolSettings);
+                }
+                break;
+            case BOOTSTRAP_MACHINE:
+                NodeModel node = nodesDao.read(taskModel.nodeId);
+                if (node == null) {
+                    break;
+                }
+                if (node.nodeStatus == NodeStatus.BOOTSTRAPPING) {
+                    logger.info("bootstrap of node [{}] was interrupted, resetting it", node.id);
+                    statusManager.beginChange();
+                    try {
+                        if (nodesDao.transition(node.id, NodeStatus.BOOTSTRAPPING, NodeStatus.CREATED)) {
+                            node.setNodeStatus(NodeStatus.CREATED);
+                            statusManager.nodeStatusChanged(node.poolId, NodeStatus.BOOTSTRAPPING, NodeStatus.CREATED);
+                        }
+                    } finally {
+                        statusManager.endChange();
+                    }
+                }
+                if (node.nodeStatus == NodeStatus.CREATED) {
+                    logger.info("resuming bootstrap of node [{}]", node.id);
+                    provisioningPipeline.provisionCreated(poolSettings, node);
+                }
+                break;
+            case DELETE_MACHINE:
+                final NodeModel deletedNode = nodesDao.read(taskModel.nodeId);
+                if (deletedNode == null) {
+                    break;
+                }
+                logger.info("resuming deletion of node [{}]", deletedNode.id);
+                taskExecutor.execute(deleteMachineTaskFactory.getObject(), new DeleteMachineConfig() {
+                    @Override
+                    public NodeModel getNodeModel() {
+                        return deletedNode;
+                    }
+                }, poolSettings);
+                break;
+            default:
+                logger.warn("don't know how to replay task [{}], dropping it", taskModel);
+        }
+    }
+
+
+    public void setPoolSettingsProvider(PoolSettingsProvider poolSettingsProvider) {
+        this.poolSettingsProvider = poolSettingsProvider;
+    }
+
+    public void setTasksDao(ITasksDao tasksDao) {
+        this.tasksDao = tasksDao;
+    }
+
+    public void setNodesDao(NodesDao nodesDao) {
+        this.nodesDao = nodesDao;
+    }
+
+    public void setStatusManager(StatusManager statusManager) {
+        this.statusManager = statusManager;
+    }
+
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    public void setProvisioningPipeline(ProvisioningPipeline provisioningPipeline) {
+        this.provisioningPipeline = provisioningPipeline;
+    }
+
+    public void setDeleteMachineTaskFactory(ObjectFactory<Task> deleteMachineTaskFactory) {
+        this.deleteMachineTaskFactory = deleteMachineTaskFactory;
+    }
+
+    public void setAbandonedAfterMillis(long abandonedAfterMillis) {
+        this.abandonedAfterMillis = abandonedAfterMillis;
+    }
+}
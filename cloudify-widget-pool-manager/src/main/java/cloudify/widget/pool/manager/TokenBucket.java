@@ -0,0 +1,83 @@
+package cloudify.widget.pool.manager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter.
+ * <p/>
+ * The bucket holds up to {@code burst} tokens and is refilled at {@code permitsPerSecond}. Callers that find it
+ * empty reserve a future token and sleep until it is due, so waiting callers are served in arrival order and the
+ * sustained rate never exceeds {@code permitsPerSecond}.
+ */
+public class TokenBucket {
+
+    private final double permitsPerSecond;
+
+    private final double burst;
+
+    // may go negative, by the tokens reserved by waiting callers
+    private double tokens;
+
+    private long lastRefillNanos = System.nanoTime();
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permits per second must be positive, but was [" + permitsPerSecond + "]");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Takes a token, waiting for one if the bucket is empty.
+     *
+     * @return The time waited, in milliseconds.
+     * @throws InterruptedException If interrupted while waiting. The reserved token is not returned.
+     */
+    public long acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * Takes a token if one is available right away. Never waits, and never takes a token reserved by a waiting
+     * caller.
+     *
+     * @return {@code true} if a token was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    private synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket{" +
+                "permitsPerSecond=" + permitsPerSecond +
+                ", burst=" + burst +
+                '}';
+    }
+}
@@ -0,0 +1,81 @@
+package cloudify.widget.pool.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.FactoryBean;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates an executor service that runs every task on its own virtual thread, when enabled and running on a JVM
+ * that supports virtual threads (Java 21 or later). Otherwise, creates a fixed size pool of platform threads.
+ * <p/>
+ * Tasks mostly wait on cloud apis and ssh sessions, which costs a virtual thread almost nothing, so the number
+ * of concurrent tasks is no longer bound by the pool size. Other limits still apply, e.g. the database
+ * connection pool, bulkheads and the providers' rate limits.
+ * <p/>
+ * Virtual threads are created by reflection, so the module keeps its Java 6 target: to use them, run on Java 21 or
+ * later and set {@code taskPool.virtualThreads}. The target must not be raised, as Spring 3.2 cannot parse the
+ * newer class files it scans.
+ */
+public class VirtualThreadExecutorServiceFactory implements FactoryBean<ExecutorService> {
+
+    private static Logger logger = LoggerFactory.getLogger(VirtualThreadExecutorServiceFactory.class);
+
+    private boolean virtualThreads = false;
+
+    // used when virtual threads are disabled or unsupported
+    private int poolSize = 200;
+
+    @Override
+    public ExecutorService getObject() throws Exception {
+        if (virtualThreads) {
+            try {
+                Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                logger.info("running tasks on virtual threads");
+                return (ExecutorService) factoryMethod.invoke(null);
+            } catch (NoSuchMethodException e) {
+                logger.warn("virtual threads are not supported by java [{}], falling back to a pool of [{}] threads",
+                        System.getProperty("java.version"), poolSize);
+            }
+        }
+        return Executors.newFixedThreadPool(poolSize);
+    }
+
+    /**
+     * @return a factory of virtual threads named {@code namePrefix-N}, or null if virtual threads are not supported
+     */
+    static ThreadFactory newVirtualThreadFactory(String namePrefix) throws Exception {
+        Method ofVirtual;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = ofVirtual.invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 0L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return ExecutorService.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return false;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+}
@@ -0,0 +1,110 @@
+package cloudify.widget.pool.manager.dto;
+
+import java.util.Arrays;
+
+/**
+ * The state of a pool's demand model and its current forecast.
+ * <p/>
+ * Demand is measured in occupy calls per forecast interval.
+ */
+public class DemandForecast {
+
+    private String poolId;
+    private long intervalMillis;
+    private long observations;
+    private double level;
+    private double[] hourlyFactors;
+    private double expectedDemand;
+    private int targetReadyNodes;
+
+    public String getPoolId() {
+        return poolId;
+    }
+
+    public DemandForecast setPoolId(String poolId) {
+        this.poolId = poolId;
+        return this;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public DemandForecast setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * @return The number of intervals the model has learned from.
+     */
+    public long getObservations() {
+        return observations;
+    }
+
+    public DemandForecast setObservations(long observations) {
+        this.observations = observations;
+        return this;
+    }
+
+    /**
+     * @return The smoothed, de-seasonalized demand per interval.
+     */
+    public double getLevel() {
+        return level;
+    }
+
+    public DemandForecast setLevel(double level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * @return Multipliers of the level per hour of the day, 0 to 23.
+     */
+    public double[] getHourlyFactors() {
+        return hourlyFactors;
+    }
+
+    public DemandForecast setHourlyFactors(double[] hourlyFactors) {
+        this.hourlyFactors = hourlyFactors;
+        return this;
+    }
+
+    /**
+     * @return The number of occupy calls expected during the lead time.
+     */
+    public double getExpectedDemand() {
+        return expectedDemand;
+    }
+
+    public DemandForecast setExpectedDemand(double expectedDemand) {
+        this.expectedDemand = expectedDemand;
+        return this;
+    }
+
+    /**
+     * @return The number of bootstrapped nodes to keep ready, at most the pool's max nodes.
+     */
+    public int getTargetReadyNodes() {
+        return targetReadyNodes;
+    }
+
+    public DemandForecast setTargetReadyNodes(int targetReadyNodes) {
+        this.targetReadyNodes = targetReadyNodes;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "DemandForecast{" +
+                "poolId='" + poolId + '\'' +
+                ", intervalMillis=" + intervalMillis +
+                ", observations=" + observations +
+                ", level=" + level +
+                ", hourlyFactors=" + Arrays.toString(hourlyFactors) +
+                ", expectedDemand=" + expectedDemand +
+                ", targetReadyNodes=" + targetReadyNodes +
+                '}';
+    }
+}
@@ -1,7 +1,7 @@
 package cloudify.widget.pool.manager.dto;
 
+import cloudify.widget.pool.manager.JsonCodec;
 import cloudify.widget.pool.manager.tasks.TaskName;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.util.Map;
@@ -21,6 +21,11 @@ public class ErrorModel {
     public String message;
     public String info;
 
+    // the number of times the same error was recorded, between the first and last time it was seen
+    public int occurrences = 1;
+    public long firstSeen = System.currentTimeMillis();
+    public long lastSeen = firstSeen;
+
     public ErrorModel setId(long id) {
         this.id = id;
         return this;
@@ -46,6 +51,21 @@ public class ErrorModel {
         return this;
     }
 
+    public ErrorModel setOccurrences(int occurrences) {
+        this.occurrences = occurrences;
+        return this;
+    }
+
+    public ErrorModel setFirstSeen(long firstSeen) {
+        this.firstSeen = firstSeen;
+        return this;
+    }
+
+    public ErrorModel setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+        return this;
+    }
+
     /**
      * This method can't be named setInfo, or JSON mapping will fail.
      * @param info
@@ -53,7 +73,7 @@ public class ErrorModel {
      */
     public ErrorModel setInfoFromMap(Map<String, Object> info) {
         try {
-            this.info = new ObjectMapper().writeValueAsString(info);
+            this.info = JsonCodec.getInstance().writeMap(info);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -68,6 +88,7 @@ public class ErrorModel {
                 ", poolId='" + poolId + '\'' +
                 ", message='" + message + '\'' +
                 ", info='" + info + '\'' +
+                ", occurrences=" + occurrences +
                 '}';
     }
 }
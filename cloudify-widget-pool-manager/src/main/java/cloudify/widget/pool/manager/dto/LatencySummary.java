@@ -0,0 +1,80 @@
+package cloudify.widget.pool.manager.dto;
+
+/**
+ * A summary of a latency histogram, all values are in milliseconds.
+ */
+public class LatencySummary {
+
+    private long count;
+    private long mean;
+    private long p50;
+    private long p90;
+    private long p99;
+    private long max;
+
+    public long getCount() {
+        return count;
+    }
+
+    public LatencySummary setCount(long count) {
+        this.count = count;
+        return this;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public LatencySummary setMean(long mean) {
+        this.mean = mean;
+        return this;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public LatencySummary setP50(long p50) {
+        this.p50 = p50;
+        return this;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public LatencySummary setP90(long p90) {
+        this.p90 = p90;
+        return this;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public LatencySummary setP99(long p99) {
+        this.p99 = p99;
+        return this;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public LatencySummary setMax(long max) {
+        this.max = max;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySummary{" +
+                "count=" + count +
+                ", mean=" + mean +
+                ", p50=" + p50 +
+                ", p90=" + p90 +
+                ", p99=" + p99 +
+                ", max=" + max +
+                '}';
+    }
+}
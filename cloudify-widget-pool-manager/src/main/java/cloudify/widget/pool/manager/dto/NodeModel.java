@@ -1,7 +1,7 @@
 package cloudify.widget.pool.manager.dto;
 
 import cloudify.widget.api.clouds.MachineCredentials;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import cloudify.widget.pool.manager.JsonCodec;
 
 import java.io.IOException;
 
@@ -53,7 +53,7 @@ public class NodeModel {
      */
     public NodeModel setCredentialsFromObject(MachineCredentials machineCredentials) {
         try {
-            this.machineCredentials = new ObjectMapper().writeValueAsString(machineCredentials);
+            this.machineCredentials = JsonCodec.getInstance().writeMachineCredentials(machineCredentials);
         } catch (IOException e) {
             e.printStackTrace();
         }
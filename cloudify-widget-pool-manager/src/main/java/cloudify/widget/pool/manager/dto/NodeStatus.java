@@ -3,6 +3,12 @@ package cloudify.widget.pool.manager.dto;
 /**
  * Status for nodes are sequential. The ordinal for a node status is represented by {@link #getOrdinal()}.
  * (we don't use {@link #ordinal()} to avoid breaking this behavior if constant order is changed).
+ * <p/>
+ * A node moves forward one status at a time, see {@link #canTransitionTo(NodeStatus)}. The only way back is a
+ * failed or interrupted bootstrap, which returns the node from {@code BOOTSTRAPPING} to {@code CREATED}.
+ * <p/>
+ * A node is claimed for deletion by moving it to {@code DELETING}, so it can no longer be bootstrapped or occupied
+ * while its machine is destroyed.
  */
 public enum NodeStatus {
 
@@ -10,7 +16,8 @@ public enum NodeStatus {
     CREATED         (200),
     BOOTSTRAPPING   (300),
     BOOTSTRAPPED    (400),
-    OCCUPIED        (500);
+    OCCUPIED        (500),
+    DELETING        (600);
 
     private final int ordinalValue;
 
@@ -21,4 +28,21 @@ public enum NodeStatus {
     public int getOrdinal() {
         return ordinalValue;
     }
+
+    public boolean canTransitionTo(NodeStatus nodeStatus) {
+        switch (this) {
+            case CREATING:
+                return nodeStatus == CREATED;
+            case CREATED:
+                return nodeStatus == BOOTSTRAPPING || nodeStatus == DELETING;
+            case BOOTSTRAPPING:
+                return nodeStatus == BOOTSTRAPPED || nodeStatus == CREATED;
+            case BOOTSTRAPPED:
+                return nodeStatus == OCCUPIED || nodeStatus == DELETING;
+            case OCCUPIED:
+                return nodeStatus == DELETING;
+            default:
+                return false;
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package cloudify.widget.pool.manager.dto;
+
+import cloudify.widget.pool.manager.tasks.TaskName;
+
+/**
+ * Timing and outcome counters of one task type, on one provider and pool, since the pool manager started.
+ */
+public class TaskMetricsSnapshot {
+
+    private TaskName taskName;
+    private ProviderSettings.ProviderName providerName;
+    private String poolId;
+    private long successCount;
+    private long failureCount;
+    private long cancelledCount;
+    private LatencySummary queueWait;
+    private LatencySummary runTime;
+
+    public TaskName getTaskName() {
+        return taskName;
+    }
+
+    public TaskMetricsSnapshot setTaskName(TaskName taskName) {
+        this.taskName = taskName;
+        return this;
+    }
+
+    public ProviderSettings.ProviderName getProviderName() {
+        return providerName;
+    }
+
+    public TaskMetricsSnapshot setProviderName(ProviderSettings.ProviderName providerName) {
+        this.providerName = providerName;
+        return this;
+    }
+
+    public String getPoolId() {
+        return poolId;
+    }
+
+    public TaskMetricsSnapshot setPoolId(String poolId) {
+        this.poolId = poolId;
+        return this;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public TaskMetricsSnapshot setSuccessCount(long successCount) {
+        this.successCount = successCount;
+        return this;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public TaskMetricsSnapshot setFailureCount(long failureCount) {
+        this.failureCount = failureCount;
+        return this;
+    }
+
+    /**
+     * @return The number of runs that were interrupted, by a timeout or through the api.
+     */
+    public long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    public TaskMetricsSnapshot setCancelledCount(long cancelledCount) {
+        this.cancelledCount = cancelledCount;
+        return this;
+    }
+
+    /**
+     * @return How long tasks waited from submission until they started running.
+     */
+    public LatencySummary getQueueWait() {
+        return queueWait;
+    }
+
+    public TaskMetricsSnapshot setQueueWait(LatencySummary queueWait) {
+        this.queueWait = queueWait;
+        return this;
+    }
+
+    /**
+     * @return How long tasks ran, whatever their outcome.
+     */
+    public LatencySummary getRunTime() {
+        return runTime;
+    }
+
+    public TaskMetricsSnapshot setRunTime(LatencySummary runTime) {
+        this.runTime = runTime;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskMetricsSnapshot{" +
+                "taskName=" + taskName +
+                ", providerName=" + providerName +
+                ", poolId='" + poolId + '\'' +
+                ", successCount=" + successCount +
+                ", failureCount=" + failureCount +
+                ", cancelledCount=" + cancelledCount +
+                ", queueWait=" + queueWait +
+                ", runTime=" + runTime +
+                '}';
+    }
+}
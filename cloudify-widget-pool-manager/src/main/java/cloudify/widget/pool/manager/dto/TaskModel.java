@@ -16,6 +16,9 @@ public class TaskModel {
     public long nodeId;
     public long startTime = System.currentTimeMillis();
     public String poolId;
+    public TaskState taskState = TaskState.PENDING;
+    // the pool manager instance which journaled the task
+    public String owner;
 
     public long getId() {
         return id;
@@ -52,6 +55,24 @@ public class TaskModel {
         return this;
     }
 
+    public TaskState getTaskState() {
+        return taskState;
+    }
+
+    public TaskModel setTaskState(TaskState taskState) {
+        this.taskState = taskState;
+        return this;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public TaskModel setOwner(String owner) {
+        this.owner = owner;
+        return this;
+    }
+
     public long getStartTime() {
         return startTime;
     }
@@ -67,6 +88,8 @@ public class TaskModel {
                 ", taskName='" + taskName + '\'' +
                 ", poolId='" + poolId + '\'' +
                 ", nodeId='" + nodeId + '\'' +
+                ", taskState=" + taskState +
+                ", owner='" + owner + '\'' +
                 '}';
     }
 }
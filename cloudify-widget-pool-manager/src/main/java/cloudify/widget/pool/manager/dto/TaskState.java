@@ -0,0 +1,17 @@
+package cloudify.widget.pool.manager.dto;
+
+/**
+ * The state of a task registered in the tasks journal.
+ */
+public enum TaskState {
+
+    /**
+     * Submitted, waiting for a thread.
+     */
+    PENDING,
+
+    /**
+     * Running on a thread.
+     */
+    RUNNING
+}
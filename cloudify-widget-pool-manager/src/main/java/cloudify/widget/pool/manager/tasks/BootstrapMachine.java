@@ -4,8 +4,10 @@ import cloudify.widget.api.clouds.CloudExecResponse;
 import cloudify.widget.api.clouds.CloudServerApi;
 import cloudify.widget.api.clouds.ISshDetails;
 import cloudify.widget.pool.manager.CloudServerApiFactory;
-import cloudify.widget.pool.manager.ErrorsDao;
+import cloudify.widget.pool.manager.ErrorsJournal;
 import cloudify.widget.pool.manager.NodesDao;
+import cloudify.widget.pool.manager.ReadyNodes;
+import cloudify.widget.pool.manager.StatusManager;
 import cloudify.widget.pool.manager.dto.*;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -33,7 +35,16 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
     private NodesDao nodesDao;
 
     @Autowired
-    private ErrorsDao errorsDao;
+    private CloudServerApiFactory cloudServerApiFactory;
+
+    @Autowired
+    private ErrorsJournal errorsJournal;
+
+    @Autowired
+    private ReadyNodes readyNodes;
+
+    @Autowired
+    private StatusManager statusManager;
 
     private PoolSettings poolSettings;
 
@@ -53,7 +64,7 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
 
         script = injectBootstrapProperties(script);
 
-        CloudServerApi cloudServerApi = CloudServerApiFactory.create(poolSettings.getProvider().getName());
+        CloudServerApi cloudServerApi = cloudServerApiFactory.create(poolSettings.getProvider().getName());
         cloudServerApi.connect(poolSettings.getProvider().getConnectDetails());
         ISshDetails sshDetails = null;//TODO init it
 
@@ -74,7 +85,7 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
         } catch (FileNotFoundException e) {
             String message = "failed to get resource for bootstrap script";
             logger.error(message, e);
-            errorsDao.create(new ErrorModel()
+            errorsJournal.record(new ErrorModel()
                             .setPoolId(poolSettings.getUuid())
                             .setTaskName(TASK_NAME)
                             .setMessage(message)
@@ -92,7 +103,7 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
         } catch (IOException e) {
             String message = "failed to read bootstrap script file to string";
             logger.error(message, e);
-            errorsDao.create(new ErrorModel()
+            errorsJournal.record(new ErrorModel()
                             .setPoolId(poolSettings.getUuid())
                             .setTaskName(TASK_NAME)
                             .setMessage(message)
@@ -119,7 +130,7 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
         if (cloudServer == null) {
             String message = String.format("machine with id [%s] was not found", machineId);
             logger.error(message);
-            errorsDao.create(new ErrorModel()
+            errorsJournal.record(new ErrorModel()
                     .setTaskName(TASK_NAME)
                     .setPoolId(poolSettings.getUuid())
                     .setMessage(message));
@@ -129,20 +140,33 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
     }*/
 
     private void runBootstrapScriptOnMachine(String script, CloudServerApi cloudServerApi, ISshDetails sshDetails) {
-        updateNodeModelStatus(NodeStatus.BOOTSTRAPPING);
-        CloudExecResponse cloudExecResponse = cloudServerApi.runScriptOnMachine(script, sshDetails);
+        if (!updateNodeModelStatus(NodeStatus.CREATED, NodeStatus.BOOTSTRAPPING)) {
+            String message = String.format("node with id [%s] is no longer created, aborting bootstrap task", taskConfig.getNodeModel().id);
+            logger.info(message);
+            throw new RuntimeException(message);
+        }
+        CloudExecResponse cloudExecResponse;
+        try {
+            cloudExecResponse = cloudServerApi.runScriptOnMachine(script, sshDetails);
+        } catch (RuntimeException e) {
+            // also covers a cancelled or timed out task, whose ssh session was torn down by the interrupt
+            rollbackNodeModelStatus(e);
+            throw e;
+        }
         int exitStatus = cloudExecResponse.getExitStatus();
         logger.debug("bootstrap was run on the machine, node id [{}]", taskConfig.getNodeModel().id);
         if (exitStatus == 0) {
-            updateNodeModelStatus(NodeStatus.BOOTSTRAPPED);
+            if (updateNodeModelStatus(NodeStatus.BOOTSTRAPPING, NodeStatus.BOOTSTRAPPED)) {
+                readyNodes.push(taskConfig.getNodeModel());
+            }
         } else {
-            updateNodeModelStatus(NodeStatus.CREATED);
+            updateNodeModelStatus(NodeStatus.BOOTSTRAPPING, NodeStatus.CREATED);
             String message = "bootstrap execution failed";
             logger.error(message);
             HashMap<String, Object> infoMap = new HashMap<String, Object>();
             infoMap.put("exitStatus", exitStatus);
             infoMap.put("output", cloudExecResponse.getOutput());
-            errorsDao.create(new ErrorModel()
+            errorsJournal.record(new ErrorModel()
                             .setPoolId(poolSettings.getUuid())
                             .setTaskName(TASK_NAME)
                             .setMessage(message)
@@ -152,11 +176,44 @@ public class BootstrapMachine implements Task<BootstrapMachineConfig, Void> {
         }
     }
 
-    private void updateNodeModelStatus(NodeStatus nodeStatus) {
-        logger.debug("bootstrap was run on the machine, updating node status to [{}]", nodeStatus);
-        NodeModel updatedNodeModel = nodesDao.read(taskConfig.getNodeModel().id);
-        updatedNodeModel.setNodeStatus(nodeStatus);
-        nodesDao.update(updatedNodeModel);
+    private void rollbackNodeModelStatus(RuntimeException cause) {
+        // the interrupt flag is cleared while rolling back, otherwise waiting for a db connection fails right away
+        boolean interrupted = Thread.interrupted();
+        try {
+            String message = interrupted ? "bootstrap execution was cancelled" : "bootstrap execution failed";
+            logger.error(message, cause);
+            updateNodeModelStatus(NodeStatus.BOOTSTRAPPING, NodeStatus.CREATED);
+            errorsJournal.record(new ErrorModel()
+                            .setPoolId(poolSettings.getUuid())
+                            .setTaskName(TASK_NAME)
+                            .setMessage(message)
+            );
+        } catch (RuntimeException e) {
+            logger.error(String.format("failed to roll back status of node with id [%s]", taskConfig.getNodeModel().id), e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the node was in status {@code from}, and was moved to status {@code to}.
+     */
+    private boolean updateNodeModelStatus(NodeStatus from, NodeStatus to) {
+        logger.debug("updating node status from [{}] to [{}]", from, to);
+        NodeModel nodeModel = taskConfig.getNodeModel();
+        statusManager.beginChange();
+        try {
+            if (!nodesDao.transition(nodeModel.id, from, to)) {
+                return false;
+            }
+            nodeModel.setNodeStatus(to);
+            statusManager.nodeStatusChanged(poolSettings.getUuid(), from, to);
+            return true;
+        } finally {
+            statusManager.endChange();
+        }
     }
 
 
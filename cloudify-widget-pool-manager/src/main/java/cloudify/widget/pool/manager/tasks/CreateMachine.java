@@ -2,19 +2,21 @@ package cloudify.widget.pool.manager.tasks;
 
 import cloudify.widget.api.clouds.CloudServerApi;
 import cloudify.widget.api.clouds.CloudServerCreated;
+import cloudify.widget.api.clouds.MachineOptions;
 import cloudify.widget.pool.manager.CloudServerApiFactory;
-import cloudify.widget.pool.manager.ErrorsDao;
+import cloudify.widget.pool.manager.ErrorsJournal;
+import cloudify.widget.pool.manager.JsonCodec;
 import cloudify.widget.pool.manager.NodesDao;
-import cloudify.widget.pool.manager.dto.NodeModel;
-import cloudify.widget.pool.manager.dto.NodeStatus;
-import cloudify.widget.pool.manager.dto.PoolSettings;
-import cloudify.widget.pool.manager.dto.ProviderSettings;
+import cloudify.widget.pool.manager.StatusManager;
+import cloudify.widget.pool.manager.dto.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * User: eliranm
@@ -25,13 +27,23 @@ public class CreateMachine implements Task<TaskConfig, Collection<NodeModel>> {
 
     private static Logger logger = LoggerFactory.getLogger(CreateMachine.class);
 
+    private static final String MACHINES_COUNT_PROPERTY = "machinesCount";
+
     private PoolSettings poolSettings;
 
+    private TaskConfig taskConfig;
+
+    @Autowired
+    private StatusManager statusManager;
+
     @Autowired
     private NodesDao nodesDao;
 
     @Autowired
-    private ErrorsDao errorsDao;
+    private CloudServerApiFactory cloudServerApiFactory;
+
+    @Autowired
+    private ErrorsJournal errorsJournal;
 
     private static final TaskName TASK_NAME = TaskName.CREATE_MACHINE;
 
@@ -47,7 +59,8 @@ public class CreateMachine implements Task<TaskConfig, Collection<NodeModel>> {
 
     @Override
     public void setTaskConfig(TaskConfig taskConfig) {
-        // no need for task data for this task
+        // optional, see CreateMachineConfig
+        this.taskConfig = taskConfig;
     }
 
     @Override
@@ -57,7 +70,7 @@ public class CreateMachine implements Task<TaskConfig, Collection<NodeModel>> {
         ProviderSettings providerSettings = poolSettings.getProvider();
 
 
-        CloudServerApi cloudServerApi = CloudServerApiFactory.create(providerSettings.getName());
+        CloudServerApi cloudServerApi = cloudServerApiFactory.create(providerSettings.getName());
         if (cloudServerApi == null) {
             String message = String.format("failed to obtain cloud server API using provider [%s]", providerSettings.getName());
             logger.error(message);
@@ -65,25 +78,74 @@ public class CreateMachine implements Task<TaskConfig, Collection<NodeModel>> {
         }
 
 
+        MachineOptions machineOptions = providerSettings.getMachineOptions();
+        if (isBatch()) {
+            int machinesCount = getMissingMachinesCount();
+            if (machinesCount <= 0) {
+                logger.info("pool [{}] is not missing any machines, nothing to create", poolSettings.getUuid());
+                return Collections.emptyList();
+            }
+            machineOptions = withMachinesCount(machineOptions, machinesCount);
+        }
+
         logger.info("connecting to provider [{}]", providerSettings.getName());
         cloudServerApi.connect(providerSettings.getConnectDetails());
 
-        Collection<NodeModel> nodeModelsCreated = new ArrayList<NodeModel>();
+        List<NodeModel> nodeModelsCreated = new ArrayList<NodeModel>();
 
-        Collection<? extends CloudServerCreated> cloudServerCreateds = cloudServerApi.create(providerSettings.getMachineOptions());
+        Collection<? extends CloudServerCreated> cloudServerCreateds = cloudServerApi.create(machineOptions);
         for (CloudServerCreated created : cloudServerCreateds) {
             NodeModel nodeModel = new NodeModel()
                     .setMachineId(created.getId())
                     .setPoolId(poolSettings.getUuid())
                     .setNodeStatus(NodeStatus.CREATED)
                     .setCredentialsFromObject(created.getCredentials());
-            logger.info("machine created, adding node to database. node model is [{}]", nodeModel);
-            nodesDao.create(nodeModel);
+            logger.info("machine created, node model is [{}]", nodeModel);
             nodeModelsCreated.add(nodeModel);
         }
 
+        logger.info("adding [{}] nodes to database", nodeModelsCreated.size());
+        statusManager.beginChange();
+        try {
+            nodesDao.createAll(nodeModelsCreated);
+            statusManager.nodesCreated(nodeModelsCreated);
+        } finally {
+            statusManager.endChange();
+        }
+
         // TODO ponder: do we really need to pass this back?
         return nodeModelsCreated;
     }
 
+    private boolean isBatch() {
+        return taskConfig != null && CreateMachineConfig.class.isAssignableFrom(taskConfig.getClass())
+                && ((CreateMachineConfig) taskConfig).isBatch();
+    }
+
+    /**
+     * @return The number of machines needed to reach the target size (at least the pool's minimum size), without
+     * exceeding the pool's maximum size. Nodes being deleted do not count towards the target, but still take up
+     * room in the cloud until they are gone.
+     */
+    private int getMissingMachinesCount() {
+        PoolStatus poolStatus = statusManager.getPoolStatus(poolSettings);
+        int currentSize = poolStatus == null ? 0 : poolStatus.getCurrentSize();
+        Integer deletingCount = poolStatus == null ? null : poolStatus.getCountPerNodeStatus().get(NodeStatus.DELETING);
+        int targetSize = Math.max(poolSettings.getMinNodes(), ((CreateMachineConfig) taskConfig).getTargetSize());
+        int missing = targetSize - (currentSize - (deletingCount == null ? 0 : deletingCount));
+        int available = poolSettings.getMaxNodes() - currentSize;
+        logger.debug("pool [{}] has [{}] nodes, missing [{}], available [{}]", new Object[]{poolSettings.getUuid(), currentSize, missing, available});
+        return Math.min(missing, available);
+    }
+
+    /**
+     * Copies the machine options with a different machines count, leaving the pool settings untouched.
+     * <p/>
+     * The copy goes through the same bean properties the options are read with from the pool settings JSON.
+     */
+    private MachineOptions withMachinesCount(MachineOptions machineOptions, int machinesCount) {
+        return JsonCodec.getInstance().copyMachineOptions(machineOptions,
+                Collections.<String, Object>singletonMap(MACHINES_COUNT_PROPERTY, machinesCount));
+    }
+
 }
@@ -0,0 +1,19 @@
+package cloudify.widget.pool.manager.tasks;
+
+/**
+ * Optional config for the {@link CreateMachine} task. Without it, the task creates as many machines as
+ * specified in the provider's machine options.
+ */
+public interface CreateMachineConfig extends TaskConfig {
+
+    /**
+     * @return {@code true} to create all the machines the pool is missing to reach its target size in a single
+     * call.
+     */
+    boolean isBatch();
+
+    /**
+     * @return The pool size to reach in batch mode. The pool's min and max nodes take precedence.
+     */
+    int getTargetSize();
+}
@@ -2,8 +2,9 @@ package cloudify.widget.pool.manager.tasks;
 
 import cloudify.widget.api.clouds.CloudServerApi;
 import cloudify.widget.pool.manager.CloudServerApiFactory;
-import cloudify.widget.pool.manager.ErrorsDao;
+import cloudify.widget.pool.manager.ErrorsJournal;
 import cloudify.widget.pool.manager.NodesDao;
+import cloudify.widget.pool.manager.ReadyNodes;
 import cloudify.widget.pool.manager.StatusManager;
 import cloudify.widget.pool.manager.dto.*;
 import org.slf4j.Logger;
@@ -14,6 +15,9 @@ import org.springframework.beans.factory.annotation.Autowired;
  * User: eliranm
  * Date: 3/5/14
  * Time: 5:32 PM
+ * <p/>
+ * The node is claimed by moving it to {@code DELETING} before its machine is deleted, unless whoever submitted
+ * the task already did. A node that can not be claimed, e.g. because it was occupied meanwhile, is not deleted.
  */
 public class DeleteMachine implements Task<DeleteMachineConfig, Void> {
 
@@ -22,11 +26,17 @@ public class DeleteMachine implements Task<DeleteMachineConfig, Void> {
     @Autowired
     private NodesDao nodesDao;
 
+    @Autowired
+    private CloudServerApiFactory cloudServerApiFactory;
+
     @Autowired
     private StatusManager statusManager;
 
     @Autowired
-    private ErrorsDao errorsDao;
+    private ErrorsJournal errorsJournal;
+
+    @Autowired
+    private ReadyNodes readyNodes;
 
     private PoolSettings poolSettings;
 
@@ -38,36 +48,93 @@ public class DeleteMachine implements Task<DeleteMachineConfig, Void> {
     public Void call() throws Exception {
         logger.info("deleting machine with pool settings [{}]", poolSettings);
 
+        NodeModel nodeModel = taskConfig == null ? null : taskConfig.getNodeModel();
+        if (nodeModel == null) {
+            String message = "no node to delete";
+            logger.error(message);
+            throw new RuntimeException(message);
+        }
+
         ProviderSettings providerSettings = poolSettings.getProvider();
 
-        CloudServerApi cloudServerApi = CloudServerApiFactory.create(providerSettings.getName());
+        CloudServerApi cloudServerApi = cloudServerApiFactory.create(providerSettings.getName());
         if (cloudServerApi == null) {
             String message = String.format("failed to obtain an API object using provider [%s]", providerSettings.getName());
             logger.error(message);
             throw new RuntimeException(message);
         }
 
-        PoolStatus status = statusManager.getPoolStatus(poolSettings);
-        if (status.getCurrentSize() <= poolSettings.getMinNodes()) {
-            String message = "pool has reached its minimum capacity as defined in the pool settings";
-            logger.error(message);
-            errorsDao.create(new ErrorModel()
-                            .setTaskName(TASK_NAME)
-                            .setPoolId(poolSettings.getUuid())
-                            .setMessage(message)
-            );
-            throw new RuntimeException(message);
+        if (nodeModel.nodeStatus != NodeStatus.DELETING) {
+            // a node claimed by the submitter is already excluded from the pool's size
+            PoolStatus status = statusManager.getPoolStatus(poolSettings);
+            int currentSize = status == null ? 0 : status.getCurrentSize();
+            Integer deletingCount = status == null ? null : status.getCountPerNodeStatus().get(NodeStatus.DELETING);
+            if (deletingCount != null) {
+                currentSize -= deletingCount;
+            }
+            if (currentSize <= poolSettings.getMinNodes()) {
+                String message = "pool has reached its minimum capacity as defined in the pool settings";
+                logger.error(message);
+                errorsJournal.record(new ErrorModel()
+                                .setTaskName(TASK_NAME)
+                                .setPoolId(poolSettings.getUuid())
+                                .setMessage(message)
+                );
+                throw new RuntimeException(message);
+            }
         }
 
-        cloudServerApi.connect(providerSettings.getConnectDetails());
-        cloudServerApi.delete(taskConfig.getNodeModel().machineId);
+        NodeModel claimedNodeModel = claim(nodeModel.id);
+        if (claimedNodeModel == null) {
+            return null;
+        }
 
-        logger.info("machine deleted, removing node model in the database [{}]");
-        nodesDao.delete(taskConfig.getNodeModel().id);
+        cloudServerApi.connect(providerSettings.getConnectDetails());
+        cloudServerApi.delete(claimedNodeModel.machineId);
+
+        logger.info("machine deleted, removing node model in the database [{}]", claimedNodeModel.id);
+        statusManager.beginChange();
+        try {
+            if (nodesDao.delete(claimedNodeModel.id) > 0) {
+                statusManager.nodeDeleted(claimedNodeModel);
+            }
+        } finally {
+            statusManager.endChange();
+        }
 
         return null;
     }
 
+    /**
+     * @return The node, moved to {@code DELETING}, or {@code null} if it was deleted meanwhile.
+     * @throws RuntimeException if the node is in a status that can not be deleted, or changed status meanwhile.
+     */
+    private NodeModel claim(long nodeId) {
+        // the node's status may have changed since the task was submitted
+        NodeModel nodeModel = nodesDao.read(nodeId);
+        if (nodeModel == null) {
+            logger.info("node with id [{}] was already deleted", nodeId);
+            return null;
+        }
+        NodeStatus nodeStatus = nodeModel.nodeStatus;
+        if (nodeStatus == NodeStatus.DELETING) {
+            return nodeModel;
+        }
+        statusManager.beginChange();
+        try {
+            if (!nodeStatus.canTransitionTo(NodeStatus.DELETING) || !nodesDao.transition(nodeModel.id, nodeStatus, NodeStatus.DELETING)) {
+                String message = String.format("node with id [%s] is [%s], aborting delete task", nodeModel.id, nodeStatus);
+                logger.info(message);
+                throw new RuntimeException(message);
+            }
+            nodeModel.setNodeStatus(NodeStatus.DELETING);
+            statusManager.nodeStatusChanged(nodeModel.poolId, nodeStatus, NodeStatus.DELETING);
+        } finally {
+            statusManager.endChange();
+        }
+        readyNodes.remove(nodeModel);
+        return nodeModel;
+    }
 
     @Override
     public TaskName getTaskName() {
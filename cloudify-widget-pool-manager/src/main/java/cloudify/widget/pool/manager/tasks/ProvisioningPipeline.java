@@ -0,0 +1,274 @@
+package cloudify.widget.pool.manager.tasks;
+
+import cloudify.widget.api.clouds.CloudServer;
+import cloudify.widget.api.clouds.CloudServerApi;
+import cloudify.widget.common.WaitScheduler;
+import cloudify.widget.common.WaitTimeout;
+import cloudify.widget.pool.manager.CallDeferredException;
+import cloudify.widget.pool.manager.CloudServerApiFactory;
+import cloudify.widget.pool.manager.ErrorsJournal;
+import cloudify.widget.pool.manager.ResilientCloudServerApi;
+import cloudify.widget.pool.manager.TaskExecutor;
+import cloudify.widget.pool.manager.dto.ErrorModel;
+import cloudify.widget.pool.manager.dto.NodeModel;
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.dto.ProviderSettings;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provisions ready nodes by chaining the create, wait-for-running and bootstrap stages as futures.
+ * <p/>
+ * Only the create and bootstrap stages run as tasks on the {@link TaskExecutor}. Waiting for the created
+ * machines to run is done by a {@link WaitScheduler}, so no thread is parked while a machine boots, and the
+ * number of threads does not depend on the number of machines being provisioned. The machine's status is probed
+ * without waiting for the rate limiter or retrying, so a probe never parks a scheduler thread; a probe that can
+ * not be made now is made on the next check.
+ * <p/>
+ * Each run gets fresh task instances from the task factories, since tasks hold per-execution state.
+ */
+public class ProvisioningPipeline {
+
+    private static Logger logger = LoggerFactory.getLogger(ProvisioningPipeline.class);
+
+    private TaskExecutor taskExecutor;
+
+    private ErrorsJournal errorsJournal;
+
+    private WaitScheduler waitScheduler;
+
+    private CloudServerApiFactory cloudServerApiFactory;
+
+    private ObjectFactory<Task> createMachineTaskFactory;
+
+    private ObjectFactory<Task> bootstrapMachineTaskFactory;
+
+    private String bootstrapScriptResourcePath;
+
+    private long machineRunningTimeoutMillis = 3 * 60 * 1000;
+
+    // ids of created nodes that are waiting to run or being bootstrapped
+    private final Set<Long> inFlightNodeIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+
+    /**
+     * @return A future of the nodes that were created and bootstrapped successfully. Fails only if no node
+     * could be created at all; failures of single nodes are recorded as errors and leave them in the pool
+     * with their last status.
+     */
+    public ListenableFuture<Collection<NodeModel>> provision(final PoolSettings poolSettings) {
+        return provision(poolSettings, false, 0);
+    }
+
+    /**
+     * Provisions all the nodes the pool is missing to reach its minimum size, creating them in a single batch.
+     *
+     * @see #provision(PoolSettings)
+     * @see CreateMachineConfig#isBatch()
+     */
+    public ListenableFuture<Collection<NodeModel>> fill(final PoolSettings poolSettings) {
+        return fill(poolSettings, poolSettings.getMinNodes());
+    }
+
+    /**
+     * Provisions all the nodes the pool is missing to reach the given size, creating them in a single batch.
+     *
+     * @see CreateMachineConfig#getTargetSize()
+     */
+    public ListenableFuture<Collection<NodeModel>> fill(final PoolSettings poolSettings, int targetSize) {
+        return provision(poolSettings, true, targetSize);
+    }
+
+    private ListenableFuture<Collection<NodeModel>> provision(final PoolSettings poolSettings, final boolean batch, final int targetSize) {
+        ListenableFuture<Collection<NodeModel>> created = taskExecutor.execute(createMachineTaskFactory.getObject(), new CreateMachineConfig() {
+            @Override
+            public boolean isBatch() {
+                return batch;
+            }
+
+            @Override
+            public int getTargetSize() {
+                return targetSize;
+            }
+        }, poolSettings, null);
+
+        return Futures.transform(created, new AsyncFunction<Collection<NodeModel>, Collection<NodeModel>>() {
+            @Override
+            public ListenableFuture<Collection<NodeModel>> apply(Collection<NodeModel> nodeModels) throws Exception {
+                List<ListenableFuture<NodeModel>> readyNodes = new ArrayList<ListenableFuture<NodeModel>>();
+                for (NodeModel nodeModel : nodeModels) {
+                    readyNodes.add(provisionCreated(poolSettings, nodeModel));
+                }
+                return Futures.transform(Futures.successfulAsList(readyNodes), new Function<List<NodeModel>, Collection<NodeModel>>() {
+                    @Override
+                    public Collection<NodeModel> apply(List<NodeModel> nodeModels) {
+                        // failed nodes are null
+                        List<NodeModel> result = new ArrayList<NodeModel>();
+                        for (NodeModel nodeModel : nodeModels) {
+                            if (nodeModel != null) {
+                                result.add(nodeModel);
+                            }
+                        }
+                        return result;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Waits for a created node's machine to run, then bootstraps it.
+     */
+    public ListenableFuture<NodeModel> provisionCreated(final PoolSettings poolSettings, final NodeModel nodeModel) {
+        inFlightNodeIds.add(nodeModel.id);
+        ListenableFuture<NodeModel> running = waitForRunning(poolSettings, nodeModel);
+
+        ListenableFuture<NodeModel> bootstrapped = Futures.transform(running, new AsyncFunction<NodeModel, NodeModel>() {
+            @Override
+            public ListenableFuture<NodeModel> apply(final NodeModel nodeModel) throws Exception {
+                return bootstrap(poolSettings, nodeModel);
+            }
+        });
+        bootstrapped.addListener(new Runnable() {
+            @Override
+            public void run() {
+                inFlightNodeIds.remove(nodeModel.id);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return bootstrapped;
+    }
+
+    /**
+     * @return {@code true} if the node is being provisioned by this pipeline, i.e. it is waiting to run or
+     * being bootstrapped.
+     */
+    public boolean isInFlight(long nodeId) {
+        return inFlightNodeIds.contains(nodeId);
+    }
+
+    private ListenableFuture<NodeModel> bootstrap(PoolSettings poolSettings, final NodeModel nodeModel) {
+        ListenableFuture<Void> bootstrapped = taskExecutor.execute(bootstrapMachineTaskFactory.getObject(), new BootstrapMachineConfig() {
+            @Override
+            public String getBootstrapScriptResourcePath() {
+                return bootstrapScriptResourcePath;
+            }
+
+            @Override
+            public NodeModel getNodeModel() {
+                return nodeModel;
+            }
+        }, poolSettings, null);
+
+        return Futures.transform(bootstrapped, new Function<Void, NodeModel>() {
+            @Override
+            public NodeModel apply(Void input) {
+                return nodeModel;
+            }
+        });
+    }
+
+    private ListenableFuture<NodeModel> waitForRunning(final PoolSettings poolSettings, final NodeModel nodeModel) {
+        final ProviderSettings providerSettings = poolSettings.getProvider();
+
+        ListenableFuture<Void> running = waitScheduler.waitFor(new WaitTimeout.Condition() {
+
+            private CloudServerApi cloudServerApi;
+
+            @Override
+            public boolean apply() {
+                if (cloudServerApi == null) {
+                    cloudServerApi = cloudServerApiFactory.create(providerSettings.getName());
+                    cloudServerApi.connect(providerSettings.getConnectDetails());
+                }
+                CloudServer cloudServer;
+                if (cloudServerApi instanceof ResilientCloudServerApi) {
+                    try {
+                        cloudServer = ((ResilientCloudServerApi) cloudServerApi).tryGet(nodeModel.machineId);
+                    } catch (CallDeferredException e) {
+                        logger.debug("probing machine [{}] deferred: {}", nodeModel.machineId, e.getMessage());
+                        return false;
+                    }
+                } else {
+                    cloudServer = cloudServerApi.get(nodeModel.machineId);
+                }
+                return cloudServer != null && cloudServer.isRunning();
+            }
+
+            @Override
+            public String toString() {
+                return String.format("machine [%s] is running", nodeModel.machineId);
+            }
+        }, machineRunningTimeoutMillis);
+
+        Futures.addCallback(running, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                logger.info("machine [{}] is running", nodeModel.machineId);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                String message = String.format("failed to wait for machine [%s] to run", nodeModel.machineId);
+                logger.error(message, t);
+                errorsJournal.record(new ErrorModel()
+                        .setPoolId(poolSettings.getUuid())
+                        .setTaskName(TaskName.CREATE_MACHINE)
+                        .setMessage(message + ": " + t.getMessage()));
+            }
+        });
+
+        return Futures.transform(running, new Function<Void, NodeModel>() {
+            @Override
+            public NodeModel apply(Void input) {
+                return nodeModel;
+            }
+        });
+    }
+
+
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    public void setErrorsJournal(ErrorsJournal errorsJournal) {
+        this.errorsJournal = errorsJournal;
+    }
+
+    public void setWaitScheduler(WaitScheduler waitScheduler) {
+        this.waitScheduler = waitScheduler;
+    }
+
+    public void setCloudServerApiFactory(CloudServerApiFactory cloudServerApiFactory) {
+        this.cloudServerApiFactory = cloudServerApiFactory;
+    }
+
+    public void setCreateMachineTaskFactory(ObjectFactory<Task> createMachineTaskFactory) {
+        this.createMachineTaskFactory = createMachineTaskFactory;
+    }
+
+    public void setBootstrapMachineTaskFactory(ObjectFactory<Task> bootstrapMachineTaskFactory) {
+        this.bootstrapMachineTaskFactory = bootstrapMachineTaskFactory;
+    }
+
+    public void setBootstrapScriptResourcePath(String bootstrapScriptResourcePath) {
+        this.bootstrapScriptResourcePath = bootstrapScriptResourcePath;
+    }
+
+    public void setMachineRunningTimeoutMillis(long machineRunningTimeoutMillis) {
+        this.machineRunningTimeoutMillis = machineRunningTimeoutMillis;
+    }
+}
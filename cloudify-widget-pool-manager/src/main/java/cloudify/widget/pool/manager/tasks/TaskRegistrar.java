@@ -1,18 +1,88 @@
 package cloudify.widget.pool.manager.tasks;
 
 import cloudify.widget.pool.manager.*;
+import cloudify.widget.pool.manager.dto.NodeModel;
 import cloudify.widget.pool.manager.dto.PoolSettings;
 import cloudify.widget.pool.manager.dto.TaskModel;
+import cloudify.widget.pool.manager.dto.TaskState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Handles registration of tasks to the running-tasks data layer.
  * <p/>
  * A decorator is used to
- * perform registration before the decorated task {@code call()} is executed, and un-registration after
- * it is executed.
+ * register a task when it is submitted, mark it as running when the decorated task {@code call()} is executed,
+ * and un-register it once it is done.
  */
 public class TaskRegistrar {
 
+    private static Logger logger = LoggerFactory.getLogger(TaskRegistrar.class);
+
+    /**
+     * Identifies equivalent tasks, i.e. tasks of the same name that are working on the same node.
+     * Such tasks should not run concurrently.
+     */
+    public static class TaskKey {
+
+        private final TaskName taskName;
+
+        private final String poolId;
+
+        private final long nodeId;
+
+        private TaskKey(TaskName taskName, String poolId, long nodeId) {
+            this.taskName = taskName;
+            this.poolId = poolId;
+            this.nodeId = nodeId;
+        }
+
+        /**
+         * @return A key for the task, or {@code null} if the task is not bound to a specific node.
+         */
+        public static TaskKey of(TaskName taskName, PoolSettings poolSettings, TaskConfig taskConfig) {
+            if (taskConfig == null || !NodeModelProvider.class.isAssignableFrom(taskConfig.getClass())) {
+                return null;
+            }
+            NodeModel nodeModel = ((NodeModelProvider) taskConfig).getNodeModel();
+            if (nodeModel == null) {
+                return null;
+            }
+            return new TaskKey(taskName, poolSettings.getUuid(), nodeModel.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            TaskKey taskKey = (TaskKey) o;
+
+            if (nodeId != taskKey.nodeId) return false;
+            if (poolId != null ? !poolId.equals(taskKey.poolId) : taskKey.poolId != null) return false;
+            if (taskName != taskKey.taskName) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = taskName != null ? taskName.hashCode() : 0;
+            result = 31 * result + (poolId != null ? poolId.hashCode() : 0);
+            result = 31 * result + (int) (nodeId ^ (nodeId >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskKey{" +
+                    "taskName=" + taskName +
+                    ", poolId='" + poolId + '\'' +
+                    ", nodeId=" + nodeId +
+                    '}';
+        }
+    }
+
     /**
      * Decorates tasks with data registration behavior.
      *
@@ -21,11 +91,20 @@ public class TaskRegistrar {
      */
     public static abstract class TaskDecorator<C extends TaskConfig, R> implements Task<C, R> {
 
-        protected abstract void register();
+        public abstract void register();
+
+        protected abstract void markRunning();
 
-        protected abstract void unregister();
+        public abstract void unregister();
 
         public abstract void setTasksDao(ITasksDao tasksDao);
+
+        public abstract void setTaskMetrics(TaskMetrics taskMetrics);
+
+        /**
+         * @return The journal entry of the task, or {@code null} if it was not registered.
+         */
+        public abstract TaskModel getTaskModel();
     }
 
     /**
@@ -47,15 +126,20 @@ public class TaskRegistrar {
 
         private ITasksDao _tasksDao;
 
+        private TaskMetrics _taskMetrics;
+
+        private final long _submitTime = System.currentTimeMillis();
+
         public TaskDecoratorImpl(Task<C, R> decorated) {
             this._decorated = decorated;
         }
 
         @Override
-        protected void register() {
+        public void register() {
             _taskModel = new TaskModel()
                     .setTaskName(_decorated.getTaskName())
-                    .setPoolId(_poolSettings.getUuid());
+                    .setPoolId(_poolSettings.getUuid())
+                    .setTaskState(TaskState.PENDING);
             if (_taskConfig != null && NodeModelProvider.class.isAssignableFrom(_taskConfig.getClass())) {
                 _taskModel.setNodeId(((NodeModelProvider) _taskConfig).getNodeModel().id);
             }
@@ -63,8 +147,19 @@ public class TaskRegistrar {
         }
 
         @Override
-        protected void unregister() {
-            _tasksDao.delete(_taskModel.id);
+        protected void markRunning() {
+            if (_taskModel != null) {
+                _taskModel.setTaskState(TaskState.RUNNING);
+                _taskModel.setStartTime(System.currentTimeMillis());
+                _tasksDao.update(_taskModel);
+            }
+        }
+
+        @Override
+        public void unregister() {
+            if (_taskModel != null) {
+                _tasksDao.delete(_taskModel.id);
+            }
         }
 
         @Override
@@ -72,12 +167,30 @@ public class TaskRegistrar {
             this._tasksDao = tasksDao;
         }
 
+        @Override
+        public void setTaskMetrics(TaskMetrics taskMetrics) {
+            this._taskMetrics = taskMetrics;
+        }
+
+        @Override
+        public TaskModel getTaskModel() {
+            return _taskModel;
+        }
+
         @Override
         public R call() throws Exception {
-            register();
-            R call = _decorated.call();
-            unregister();
-            return call;
+            long startTime = System.currentTimeMillis();
+            if (_taskMetrics != null) {
+                _taskMetrics.recordQueueWait(getTaskName(), _poolSettings, startTime - _submitTime);
+            }
+            try {
+                markRunning();
+            } catch (RuntimeException e) {
+                // the journal is best effort, it must not fail the task
+                logger.error("failed to mark task [" + _taskModel + "] as running", e);
+            }
+            // the run time and outcome are recorded by the executor, from the state of the task's future
+            return _decorated.call();
         }
 
         @Override
@@ -0,0 +1,9 @@
+create table tasks (
+  id int not null auto_increment,
+  task_name varchar(200),
+  node_id int,
+  pool_id varchar(200),
+  task_state varchar(50),
+  start_time bigint,
+  primary key (id)
+);
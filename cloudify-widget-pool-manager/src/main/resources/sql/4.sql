@@ -0,0 +1,3 @@
+alter table nodes add column claim_token varchar(36);
+create index nodes_pool_status on nodes (pool_id, node_status);
+create index nodes_claim_token on nodes (claim_token);
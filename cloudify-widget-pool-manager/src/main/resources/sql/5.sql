@@ -0,0 +1,3 @@
+create index errors_pool_id on errors (pool_id);
+create index tasks_pool_id on tasks (pool_id);
+create index tasks_node_id on tasks (node_id);
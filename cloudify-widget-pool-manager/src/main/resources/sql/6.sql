@@ -0,0 +1,3 @@
+alter table errors add column occurrences int default 1 not null;
+alter table errors add column first_seen bigint;
+alter table errors add column last_seen bigint;
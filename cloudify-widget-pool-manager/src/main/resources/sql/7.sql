@@ -0,0 +1 @@
+create index errors_last_seen on errors (last_seen);
@@ -0,0 +1 @@
+alter table tasks add column owner varchar(200);
@@ -0,0 +1,42 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.tasks.Task;
+import cloudify.widget.pool.manager.tasks.TaskConfig;
+import cloudify.widget.pool.manager.tasks.TaskName;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A task that does nothing but wait for a latch, so tests control when executor threads free up.
+ */
+public class LatchTask implements Task<TaskConfig, Void> {
+
+    private final TaskName taskName;
+
+    private final CountDownLatch latch;
+
+    public LatchTask(TaskName taskName, CountDownLatch latch) {
+        this.taskName = taskName;
+        this.latch = latch;
+    }
+
+    @Override
+    public Void call() throws Exception {
+        latch.await();
+        return null;
+    }
+
+    @Override
+    public TaskName getTaskName() {
+        return taskName;
+    }
+
+    @Override
+    public void setPoolSettings(PoolSettings poolSettings) {
+    }
+
+    @Override
+    public void setTaskConfig(TaskConfig taskConfig) {
+    }
+}
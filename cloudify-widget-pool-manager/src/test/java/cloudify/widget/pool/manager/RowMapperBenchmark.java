@@ -0,0 +1,97 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.NodeModel;
+import cloudify.widget.pool.manager.dto.NodeStatus;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per row cost of reading nodes with a {@link BeanPropertyRowMapper} and {@code select *}, as the
+ * dao used to, against the dao's own projection and row mapper.
+ * <p/>
+ * Runs against an embedded database, so the cost of mapping is not hidden by network round trips.
+ * Run with {@code mvn test-compile exec:java -Dexec.mainClass=cloudify.widget.pool.manager.RowMapperBenchmark -Dexec.classpathScope=test}
+ * or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private static final String POOL_ID = "benchmark";
+
+    private BasicDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private NodesDao nodesDao;
+
+    @Setup
+    public void setUp() {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:benchmark;MODE=MySQL;DB_CLOSE_DELAY=-1");
+
+        SchemaMigrator schemaMigrator = new SchemaMigrator();
+        schemaMigrator.setDataSource(dataSource);
+        schemaMigrator.setScriptsLocation("classpath:sql/*.sql");
+        schemaMigrator.migrate();
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        nodesDao = new NodesDao();
+        nodesDao.setJdbcTemplate(jdbcTemplate);
+
+        List<NodeModel> nodeModels = new ArrayList<NodeModel>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            nodeModels.add(new NodeModel()
+                    .setPoolId(POOL_ID)
+                    .setNodeStatus(NodeStatus.values()[i % NodeStatus.values().length])
+                    .setMachineId("machine-" + i)
+                    .setMachineCredentials("{\"publicKey\":\"ssh-rsa AAAAB3NzaC1yc2EAAAADAQABAAABAQ\",\"privateKey\":null}"));
+        }
+        nodesDao.createAll(nodeModels);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        jdbcTemplate.execute("shutdown");
+        dataSource.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<NodeModel> beanPropertyRowMapper() {
+        return jdbcTemplate.query("select * from " + NodesDao.TABLE_NAME + " where " + NodesDao.COL_POOL_ID + " = ?",
+                new Object[]{POOL_ID},
+                new BeanPropertyRowMapper<NodeModel>(NodeModel.class));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<NodeModel> nodeModelRowMapper() {
+        return nodesDao.readAllOfPool(POOL_ID);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RowMapperBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,113 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.tasks.TaskName;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bulkhead caps running tasks per task name, and what it does once their pending queue is full.
+ */
+public class TestBulkhead {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final PoolSettings lowPriorityPool = new PoolSettings();
+
+    private final PoolSettings highPriorityPool = new PoolSettings();
+
+    private TaskPriorities taskPriorities;
+
+    private ExecutorService executorService;
+
+    private Bulkhead bulkhead;
+
+    @Before
+    public void setUp() {
+        taskPriorities = new TaskPriorities();
+        taskPriorities.setPoolPriorities(Collections.singletonMap(highPriorityPool.getUuid(), 30));
+
+        executorService = Executors.newFixedThreadPool(4);
+        bulkhead = new Bulkhead();
+        bulkhead.setExecutorService(executorService);
+        bulkhead.setTaskLimits(Collections.singletonMap(TaskName.BOOTSTRAP_MACHINE, 1));
+        bulkhead.setMaxPendingPerTask(1);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        latch.countDown();
+        bulkhead.shutdown();
+        Assert.assertTrue(bulkhead.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLimitsRunningTasks() throws Exception {
+        QueuedTask<Void> running = newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool);
+        QueuedTask<Void> pending = newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool);
+        QueuedTask<Void> unlimited = newTask(TaskName.CREATE_MACHINE, lowPriorityPool);
+        bulkhead.execute(running);
+        bulkhead.execute(pending);
+        bulkhead.execute(unlimited);
+
+        // tasks without a limit are not held back by the capped ones
+        long deadline = System.currentTimeMillis() + 10000;
+        while (unlimited.getStartTime() == 0 || running.getStartTime() == 0) {
+            Assert.assertTrue("tasks did not start", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("the limit is reached, the task should wait", 0, pending.getStartTime());
+
+        // the pending task takes the slot of the one that completed
+        latch.countDown();
+        running.getFuture().get(10, TimeUnit.SECONDS);
+        pending.getFuture().get(10, TimeUnit.SECONDS);
+        unlimited.getFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testAbortWhenPendingIsFull() {
+        bulkhead.execute(newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool));
+        bulkhead.execute(newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool));
+        try {
+            bulkhead.execute(newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool));
+            Assert.fail("the pending queue is full, the task should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDiscardOldestDropsLowestPriority() throws Exception {
+        bulkhead.setRejectionPolicy(RejectionPolicy.DISCARD_OLDEST);
+        bulkhead.execute(newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool));
+        QueuedTask<Void> low = newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool);
+        bulkhead.execute(low);
+
+        // the pending low priority task makes room for a high priority one
+        QueuedTask<Void> high = newTask(TaskName.BOOTSTRAP_MACHINE, highPriorityPool);
+        bulkhead.execute(high);
+        Assert.assertTrue(low.getFuture().isCancelled());
+
+        // but not the other way around
+        QueuedTask<Void> lateLow = newTask(TaskName.BOOTSTRAP_MACHINE, lowPriorityPool);
+        bulkhead.execute(lateLow);
+        Assert.assertTrue(lateLow.getFuture().isCancelled());
+
+        latch.countDown();
+        high.getFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private QueuedTask<Void> newTask(TaskName taskName, PoolSettings poolSettings) {
+        return new QueuedTask<Void>(new LatchTask(taskName, latch), poolSettings, taskPriorities);
+    }
+}
@@ -0,0 +1,115 @@
+package cloudify.widget.pool.manager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Walks the circuit breaker through its states, and checks the accounting of half open probes.
+ */
+public class TestCircuitBreaker {
+
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 10, 4, 0.5, 60000, 1);
+
+        // below the minimum number of calls, failures alone do not open the breaker
+        failCall(circuitBreaker);
+        failCall(circuitBreaker);
+        succeedCall(circuitBreaker);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        failCall(circuitBreaker);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        try {
+            circuitBreaker.acquirePermission();
+            Assert.fail("an open breaker should reject calls");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStaysClosedBelowFailureRate() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 4, 4, 0.6, 60000, 1);
+        for (int i = 0; i < 10; i++) {
+            succeedCall(circuitBreaker);
+            succeedCall(circuitBreaker);
+            failCall(circuitBreaker);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbesClose() {
+        CircuitBreaker circuitBreaker = openedBreaker(2);
+
+        circuitBreaker.acquirePermission();
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.acquirePermission();
+        assertRejected(circuitBreaker);
+
+        // one successful probe is not enough
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.acquirePermission();
+    }
+
+    @Test
+    public void testHalfOpenProbeFailureOpens() {
+        CircuitBreaker circuitBreaker = openedBreaker(2);
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testReleasedProbeFreesItsSlot() {
+        CircuitBreaker circuitBreaker = openedBreaker(1);
+
+        circuitBreaker.acquirePermission();
+        assertRejected(circuitBreaker);
+
+        // e.g. an interrupted probe, has no outcome
+        circuitBreaker.release();
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    // opens with no open duration, so the next permission is a half open probe
+    private static CircuitBreaker openedBreaker(int halfOpenProbes) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 2, 2, 0.5, 0, halfOpenProbes);
+        failCall(circuitBreaker);
+        failCall(circuitBreaker);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        return circuitBreaker;
+    }
+
+    private static void assertRejected(CircuitBreaker circuitBreaker) {
+        try {
+            circuitBreaker.acquirePermission();
+            Assert.fail("all of the half open probes are in flight, the call should be rejected");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+    }
+
+    private static void succeedCall(CircuitBreaker circuitBreaker) {
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess();
+    }
+
+    private static void failCall(CircuitBreaker circuitBreaker) {
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+    }
+}
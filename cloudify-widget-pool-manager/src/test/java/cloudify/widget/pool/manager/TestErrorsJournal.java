@@ -0,0 +1,183 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.ErrorModel;
+import cloudify.widget.pool.manager.tasks.TaskName;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Checks how the errors journal batches, deduplicates and writes errors. The dao keeps rows in memory.
+ */
+public class TestErrorsJournal {
+
+    private InMemoryErrorsDao errorsDao;
+
+    private ErrorsJournal errorsJournal;
+
+    @Before
+    public void setUp() {
+        errorsDao = new InMemoryErrorsDao();
+        errorsJournal = new ErrorsJournal();
+        errorsJournal.setErrorsDao(errorsDao);
+    }
+
+    @Test
+    public void testFlushWritesQueuedErrors() {
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.record(newError("pool2", "connection refused"));
+        Assert.assertTrue("errors are only written on flush", errorsDao.rows.isEmpty());
+
+        errorsJournal.flush();
+        Assert.assertEquals(2, errorsDao.rows.size());
+        Assert.assertEquals(1, errorsDao.createCalls);
+
+        // nothing queued, nothing written
+        errorsJournal.flush();
+        Assert.assertEquals(1, errorsDao.createCalls);
+    }
+
+    @Test
+    public void testSameErrorIsQueuedOnce() {
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.record(newError("pool1", "connection refused").setInfo("last"));
+        errorsJournal.flush();
+
+        Assert.assertEquals(1, errorsDao.rows.size());
+        ErrorModel row = errorsDao.rows.values().iterator().next();
+        Assert.assertEquals(3, row.occurrences);
+        Assert.assertEquals("last", row.info);
+    }
+
+    @Test
+    public void testDedupWindowAddsOccurrences() {
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+
+        Assert.assertEquals("an error written within the window updates its row", 1, errorsDao.rows.size());
+        Assert.assertEquals(3, errorsDao.rows.values().iterator().next().occurrences);
+    }
+
+    @Test
+    public void testOutsideDedupWindowInsertsAgain() {
+        // every written row is out of the window by the next flush
+        errorsJournal.setDedupWindowMillis(-1);
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+
+        Assert.assertEquals(2, errorsDao.rows.size());
+    }
+
+    @Test
+    public void testReinsertsDeletedRow() {
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+        // e.g. by the compactor, or through the api
+        errorsDao.rows.clear();
+
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+
+        Assert.assertEquals(1, errorsDao.rows.size());
+        ErrorModel row = errorsDao.rows.values().iterator().next();
+        Assert.assertEquals(1, row.occurrences);
+
+        // and the new row is the one updated from now on
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+        Assert.assertEquals(1, errorsDao.rows.size());
+        Assert.assertEquals(2, errorsDao.rows.get(row.id).occurrences);
+    }
+
+    @Test
+    public void testDropsBeyondMaxPending() {
+        errorsJournal.setMaxPending(2);
+        errorsJournal.record(newError("pool1", "first"));
+        errorsJournal.record(newError("pool1", "second"));
+        errorsJournal.record(newError("pool1", "third"));
+        // already queued errors are still counted
+        errorsJournal.record(newError("pool1", "first"));
+        errorsJournal.flush();
+
+        Assert.assertEquals(2, errorsDao.rows.size());
+    }
+
+    @Test
+    public void testFailedWriteIsDropped() {
+        errorsDao.failing = true;
+        errorsJournal.record(newError("pool1", "connection refused"));
+        errorsJournal.flush();
+
+        errorsDao.failing = false;
+        errorsJournal.flush();
+        Assert.assertTrue(errorsDao.rows.isEmpty());
+    }
+
+    private static ErrorModel newError(String poolId, String message) {
+        return new ErrorModel().setPoolId(poolId).setTaskName(TaskName.CREATE_MACHINE).setMessage(message);
+    }
+
+    private static class InMemoryErrorsDao extends ErrorsDao {
+
+        final Map<Long, ErrorModel> rows = new TreeMap<Long, ErrorModel>();
+
+        long nextId = 1;
+
+        int createCalls = 0;
+
+        boolean failing = false;
+
+        @Override
+        public int createAll(List<ErrorModel> errorModels) {
+            if (errorModels.isEmpty()) {
+                return 0;
+            }
+            if (failing) {
+                throw new RuntimeException("database is down");
+            }
+            createCalls++;
+            for (ErrorModel errorModel : errorModels) {
+                errorModel.id = nextId++;
+                rows.put(errorModel.id, new ErrorModel()
+                        .setId(errorModel.id)
+                        .setPoolId(errorModel.poolId)
+                        .setTaskName(errorModel.taskName)
+                        .setMessage(errorModel.message)
+                        .setInfo(errorModel.info)
+                        .setOccurrences(errorModel.occurrences)
+                        .setFirstSeen(errorModel.firstSeen)
+                        .setLastSeen(errorModel.lastSeen));
+            }
+            return errorModels.size();
+        }
+
+        @Override
+        public int[] addOccurrences(List<ErrorModel> errorModels) {
+            if (failing) {
+                throw new RuntimeException("database is down");
+            }
+            int[] updated = new int[errorModels.size()];
+            for (int i = 0; i < errorModels.size(); i++) {
+                ErrorModel errorModel = errorModels.get(i);
+                ErrorModel row = rows.get(errorModel.id);
+                if (row != null) {
+                    row.occurrences += errorModel.occurrences;
+                    row.lastSeen = errorModel.lastSeen;
+                    row.info = errorModel.info;
+                    updated[i] = 1;
+                }
+            }
+            return updated;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.LatencySummary;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the histogram's buckets stay within their stated precision, and the percentiles read from them.
+ */
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketPrecision() {
+        for (long value = 0; value < 8; value++) {
+            Assert.assertEquals("small values are exact", value, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value)));
+        }
+        long[] values = {8, 9, 15, 16, 17, 100, 1000, 1023, 1024, 60000, 3600000, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            long upperBound = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value));
+            Assert.assertTrue("bucket of [" + value + "] ends at [" + upperBound + "]",
+                    upperBound >= value && upperBound - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 100; millis++) {
+            histogram.record(millis);
+        }
+
+        Assert.assertEquals(100, histogram.getCount());
+        assertWithinPrecision(50, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(90, histogram.getValueAtPercentile(90));
+        assertWithinPrecision(99, histogram.getValueAtPercentile(99));
+        // never beyond the largest recorded value
+        Assert.assertEquals(100, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testSummary() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.summarize().getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+
+        histogram.record(10);
+        histogram.record(30);
+        // clock skew, counted as no wait at all
+        histogram.record(-5);
+
+        LatencySummary summary = histogram.summarize();
+        Assert.assertEquals(3, summary.getCount());
+        Assert.assertEquals(13, summary.getMean());
+        Assert.assertEquals(30, summary.getMax());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(30));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        Assert.assertTrue("expected about [" + expected + "] but was [" + actual + "]",
+                actual >= expected && actual - expected <= expected / 8);
+    }
+}
@@ -0,0 +1,127 @@
+package cloudify.widget.pool.manager;
+
+import cloudify.widget.pool.manager.dto.PoolSettings;
+import cloudify.widget.pool.manager.tasks.TaskName;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bounded priority queue's ordering and capacity, and how DISCARD_OLDEST treats it.
+ */
+public class TestPriorityTaskQueue {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final PoolSettings poolSettings = new PoolSettings();
+
+    private TaskPriorities taskPriorities;
+
+    private ThreadPoolExecutor executor;
+
+    @Before
+    public void setUp() {
+        taskPriorities = new TaskPriorities();
+        taskPriorities.setTaskPriorities(Collections.singletonMap(TaskName.CREATE_MACHINE, 30));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        latch.countDown();
+        if (executor != null) {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testOrdersByPriorityThenFifo() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        QueuedTask<Void> delete1 = newTask(TaskName.DELETE_MACHINE);
+        QueuedTask<Void> create1 = newTask(TaskName.CREATE_MACHINE);
+        QueuedTask<Void> delete2 = newTask(TaskName.DELETE_MACHINE);
+        QueuedTask<Void> create2 = newTask(TaskName.CREATE_MACHINE);
+        queue.add(delete1);
+        queue.add(create1);
+        queue.add(delete2);
+        queue.add(create2);
+
+        // the lowest priority, most recently queued task runs last
+        Assert.assertSame(delete2, queue.peekLast());
+
+        Assert.assertSame(create1, queue.poll());
+        Assert.assertSame(create2, queue.poll());
+        Assert.assertSame(delete1, queue.poll());
+        Assert.assertSame(delete2, queue.poll());
+        Assert.assertNull(queue.peekLast());
+        Assert.assertNull(queue.pollLast());
+    }
+
+    @Test
+    public void testBoundedOffer() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(2);
+        Assert.assertTrue(queue.offer(newTask(TaskName.DELETE_MACHINE)));
+        Assert.assertTrue(queue.offer(newTask(TaskName.DELETE_MACHINE)));
+        Assert.assertEquals(0, queue.remainingCapacity());
+
+        Assert.assertFalse("the queue is full", queue.offer(newTask(TaskName.CREATE_MACHINE)));
+        Assert.assertEquals(2, queue.size());
+
+        queue.pollLast();
+        Assert.assertEquals(1, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testDiscardOldestDropsLowestPriority() {
+        executor = newExecutor(2);
+        executor.execute(newTask(TaskName.DELETE_MACHINE)); // occupies the only thread
+        QueuedTask<Void> delete = newTask(TaskName.DELETE_MACHINE);
+        QueuedTask<Void> create1 = newTask(TaskName.CREATE_MACHINE);
+        executor.execute(delete);
+        executor.execute(create1);
+
+        // the queue is full, the queued delete would run last and makes room for a create
+        QueuedTask<Void> create2 = newTask(TaskName.CREATE_MACHINE);
+        executor.execute(create2);
+        Assert.assertTrue(delete.getFuture().isCancelled());
+        Assert.assertTrue(executor.getQueue().contains(create1));
+        Assert.assertTrue(executor.getQueue().contains(create2));
+
+        // nothing queued would run after a new delete, so the delete itself is dropped
+        QueuedTask<Void> lateDelete = newTask(TaskName.DELETE_MACHINE);
+        executor.execute(lateDelete);
+        Assert.assertTrue(lateDelete.getFuture().isCancelled());
+        Assert.assertFalse(create1.getFuture().isCancelled());
+        Assert.assertFalse(create2.getFuture().isCancelled());
+    }
+
+    @Test
+    public void testDiscardOldestOnFifoQueueDropsHead() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(1), RejectionPolicy.DISCARD_OLDEST.newHandler());
+        executor.execute(newTask(TaskName.DELETE_MACHINE));
+        QueuedTask<Void> create = newTask(TaskName.CREATE_MACHINE);
+        QueuedTask<Void> delete = newTask(TaskName.DELETE_MACHINE);
+        executor.execute(create);
+        executor.execute(delete);
+
+        Assert.assertTrue("the head of a fifo queue has waited the longest", create.getFuture().isCancelled());
+        Assert.assertTrue(executor.getQueue().contains(delete));
+    }
+
+    private ThreadPoolExecutor newExecutor(int queueCapacity) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new PriorityTaskQueue(queueCapacity), RejectionPolicy.DISCARD_OLDEST.newHandler());
+    }
+
+    private QueuedTask<Void> newTask(TaskName taskName) {
+        return new QueuedTask<Void>(new LatchTask(taskName, latch), poolSettings, taskPriorities);
+    }
+}
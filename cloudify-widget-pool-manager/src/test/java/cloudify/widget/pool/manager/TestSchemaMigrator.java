@@ -0,0 +1,127 @@
+package cloudify.widget.pool.manager;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Applies the pool manager's sql scripts to an embedded database, and checks the dao lookups use indexes.
+ */
+public class TestSchemaMigrator {
+
+    // the last script in sql/
+    private static final int LATEST_VERSION = 8;
+
+    private DriverManagerDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private SchemaMigrator schemaMigrator;
+
+    @Before
+    public void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        dataSource.setDriverClassName("org.h2.Driver");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        schemaMigrator = new SchemaMigrator();
+        schemaMigrator.setDataSource(dataSource);
+        schemaMigrator.setScriptsLocation("classpath:sql/*.sql");
+        schemaMigrator.setExistingTable(NodesDao.TABLE_NAME);
+    }
+
+    @Test
+    public void testMigrate() {
+        schemaMigrator.migrate();
+        Assert.assertEquals(LATEST_VERSION, jdbcTemplate.queryForObject("select max(version) from schema_version", Integer.class).intValue());
+
+        // nothing is pending, so a second run should not apply anything again
+        schemaMigrator.migrate();
+        Assert.assertEquals(LATEST_VERSION, jdbcTemplate.queryForObject("select count(*) from schema_version", Integer.class).intValue());
+    }
+
+    @Test
+    public void testUnrecordedSchemaFailsFast() {
+        // a database migrated by hand, without a baseline
+        jdbcTemplate.execute("create table nodes (id int not null auto_increment, pool_id varchar(200), node_status varchar(200), primary key (id))");
+
+        try {
+            schemaMigrator.migrate();
+            Assert.fail("migrating a database with unrecorded scripts should fail");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("baseline"));
+        }
+        Assert.assertEquals(0, jdbcTemplate.queryForObject("select count(*) from schema_version", Integer.class).intValue());
+    }
+
+    @Test
+    public void testBaseline() {
+        // a database migrated by hand up to 3.sql, i.e. the tables of 1.sql as altered by 2.sql, and 3.sql
+        jdbcTemplate.execute("create table nodes (id int not null auto_increment, pool_id varchar(200), node_status varchar(200), machine_id varchar(200), machine_credentials varchar(8000), primary key (id))");
+        jdbcTemplate.execute("create table errors (id int not null auto_increment, task_name varchar(200), pool_id varchar(200), message varchar(2000), info varchar(4000), primary key (id))");
+        jdbcTemplate.execute("create table tasks (id int not null auto_increment, task_name varchar(200), node_id int, pool_id varchar(200), task_state varchar(50), start_time bigint, primary key (id))");
+
+        schemaMigrator.setBaselineVersion(3);
+        schemaMigrator.migrate();
+
+        Assert.assertEquals(1, jdbcTemplate.queryForObject("select count(*) from schema_version where version = 3", Integer.class).intValue());
+        Assert.assertEquals(LATEST_VERSION, jdbcTemplate.queryForObject("select max(version) from schema_version", Integer.class).intValue());
+        assertUsesIndex(NodesDao.SQL_SELECT_BY_CLAIM_TOKEN, "nodes_claim_token");
+    }
+
+    @Test
+    public void testQueriesUseIndexes() {
+        schemaMigrator.migrate();
+
+        assertUsesIndex(NodesDao.SQL_SELECT_OF_POOL, "nodes_pool_status");
+        assertUsesIndex(NodesDao.SQL_SELECT_PAGE_OF_POOL, "nodes_pool_status");
+        assertUsesIndex(NodesDao.SQL_CLAIM_OF_POOL, "nodes_pool_status");
+        assertUsesIndex(NodesDao.SQL_SELECT_BY_CLAIM_TOKEN, "nodes_claim_token");
+        assertUsesIndex(ErrorsDao.SQL_SELECT_OF_POOL, "errors_pool_id");
+        assertUsesIndex(ErrorsDao.SQL_SELECT_PAGE_OF_POOL, "errors_pool_id");
+        assertUsesIndex(ErrorsDao.SQL_DELETE_OLDER_THAN, "errors_last_seen");
+        assertUsesIndex(TasksDao.SQL_SELECT_OF_POOL, "tasks_pool_id");
+        assertUsesIndex(TasksDao.SQL_SELECT_OF_NODE, "tasks_node_id");
+    }
+
+    // h2 does not explain statements with unbound parameters, so every parameter is bound to '1', which h2
+    // converts to whatever type the column is.
+    // h2 does not parse mysql's 'update .. order by .. limit' either, so the rows an update touches are looked up
+    // with a select of the same table, with the update's where, order and limit
+    private void assertUsesIndex(String query, String indexName) {
+        if (query.startsWith("update ")) {
+            String table = query.substring("update ".length(), query.indexOf(' ', "update ".length()));
+            query = "select * from " + table + query.substring(query.indexOf(" where "));
+        }
+        final String explained = query;
+        String plan = jdbcTemplate.query(
+                new PreparedStatementCreator() {
+                    @Override
+                    public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                        PreparedStatement ps = con.prepareStatement("explain " + explained);
+                        int parameterCount = ps.getParameterMetaData().getParameterCount();
+                        for (int i = 1; i <= parameterCount; i++) {
+                            ps.setString(i, "1");
+                        }
+                        return ps;
+                    }
+                },
+                new ResultSetExtractor<String>() {
+                    @Override
+                    public String extractData(ResultSet rs) throws SQLException {
+                        return rs.next() ? rs.getString(1) : "";
+                    }
+                });
+        Assert.assertTrue(String.format("expected [%s] to use index [%s], but plan is [%s]", query, indexName, plan),
+                plan.toLowerCase().contains(indexName.toLowerCase()));
+    }
+}
@@ -0,0 +1,59 @@
+package cloudify.widget.pool.manager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the token bucket serves bursts right away, and throttles callers beyond them.
+ */
+public class TestTokenBucket {
+
+    @Test
+    public void testTryAcquireTakesBurstOnly() {
+        // slow enough for the bucket not to refill during the test
+        TokenBucket tokenBucket = new TokenBucket(0.01, 2);
+
+        Assert.assertTrue(tokenBucket.tryAcquire());
+        Assert.assertTrue(tokenBucket.tryAcquire());
+        Assert.assertFalse("the burst is used up", tokenBucket.tryAcquire());
+    }
+
+    @Test
+    public void testAcquireWaitsBeyondBurst() throws InterruptedException {
+        TokenBucket tokenBucket = new TokenBucket(10, 1);
+
+        Assert.assertEquals(0, tokenBucket.acquire());
+
+        long waitedMillis = tokenBucket.acquire();
+        Assert.assertTrue("waited [" + waitedMillis + "] ms", waitedMillis > 50 && waitedMillis <= 100);
+    }
+
+    @Test
+    public void testTryAcquireDoesNotTakeReservedTokens() throws InterruptedException {
+        final TokenBucket tokenBucket = new TokenBucket(1, 1);
+        Assert.assertTrue(tokenBucket.tryAcquire());
+
+        // reserves the next token, due in a second
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tokenBucket.acquire();
+                } catch (InterruptedException e) {
+                    // the test is over
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+
+        Assert.assertFalse("the next token is reserved by the waiting caller", tokenBucket.tryAcquire());
+        waiter.interrupt();
+        waiter.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveRate() {
+        new TokenBucket(0, 1);
+    }
+}
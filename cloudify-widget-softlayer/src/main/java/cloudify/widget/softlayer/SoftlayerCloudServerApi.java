@@ -2,6 +2,7 @@ package cloudify.widget.softlayer;
 
 import cloudify.widget.api.clouds.*;
 import cloudify.widget.common.CloudExecResponseImpl;
+import cloudify.widget.common.Interruptibles;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.net.HostAndPort;
@@ -11,6 +12,8 @@ import com.google.inject.Injector;
 import com.google.inject.Module;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -31,6 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import static com.google.common.collect.Collections2.transform;
 
@@ -245,7 +249,7 @@ public class SoftlayerCloudServerApi implements CloudServerApi {
         try{
             sshConnection.connect();
             logger.info("ssh connected, executing");
-            execResponse = sshConnection.exec(script);
+            execResponse = Interruptibles.exec(sshConnection, script);
             logger.info("finished execution");
         }
         finally{
@@ -267,7 +271,7 @@ public class SoftlayerCloudServerApi implements CloudServerApi {
         }
 
         // build sshpass command
-        CommandLine cmdLine = new CommandLine("sshpass");
+        final CommandLine cmdLine = new CommandLine("sshpass");
         cmdLine.addArguments(new String[]{
                 "-p", softlayerSshDetails.password(),
                 "ssh",
@@ -294,20 +298,36 @@ public class SoftlayerCloudServerApi implements CloudServerApi {
         // redirect stream between the executor and the java process
         PumpStreamHandler streamHandler = new PumpStreamHandler(outputStream, errorStream, inputStream);
 
-        DefaultExecutor executor = new DefaultExecutor();
+        final DefaultExecutor executor = new DefaultExecutor();
         executor.setStreamHandler(streamHandler);
+        // lets an interrupted caller kill the ssh process
+        final ExecuteWatchdog watchdog = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
+        executor.setWatchdog(watchdog);
 
-        int exitValue = 1;
-        try {
-            if (logger.isDebugEnabled()) {
-                logger.debug("executing ssh script via cli, command line is [{}]", StringUtils.join(cmdLine));
-                logger.debug("\tmachine is [{}]", serverIp);
-                logger.debug("\tscript is [{}]", script);
-            }
-            exitValue = executor.execute(cmdLine);
-        } catch (IOException e) {
-            logger.error("failed executing command line ssh call", e);
+        if (logger.isDebugEnabled()) {
+            logger.debug("executing ssh script via cli, command line is [{}]", StringUtils.join(cmdLine));
+            logger.debug("\tmachine is [{}]", serverIp);
+            logger.debug("\tscript is [{}]", script);
         }
+        int exitValue = Interruptibles.call(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    return executor.execute(cmdLine);
+                } catch (ExecuteException e) {
+                    logger.error("failed executing command line ssh call", e);
+                    return e.getExitValue();
+                } catch (IOException e) {
+                    logger.error("failed executing command line ssh call", e);
+                    return 1;
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                watchdog.destroyProcess();
+            }
+        });
 
         return new ExecResponse(outputStream.toString(), errorStream.toString(), exitValue);
     }